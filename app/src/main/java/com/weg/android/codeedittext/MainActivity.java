@@ -1,5 +1,6 @@
 package com.weg.android.codeedittext;
 
+import android.content.res.AssetFileDescriptor;
 import android.os.Bundle;
 
 import androidx.appcompat.app.AppCompatActivity;
@@ -9,12 +10,22 @@ import com.weg.android.codeedittext.lang.OpenFileModel;
 import com.weg.android.codeedittext.lang.OpenFileModels;
 import com.weg.android.codeedittext.lang.typescript.TypeScriptFileSupport;
 import com.weg.android.editor.EditorView;
+import com.weg.android.editor.text.immutable.ImmutableText;
+import com.weg.android.editor.text.immutable.TextLoader;
 
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.charset.Charset;
+import java.util.concurrent.CancellationException;
 
 public class MainActivity extends AppCompatActivity {
 	
 	EditorView view;
+	private Thread loading;
 	
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -27,17 +38,63 @@ public class MainActivity extends AppCompatActivity {
 		openFile("pieceTreeBase.ts");
 	}
 	
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		if (loading != null)
+			loading.interrupt();
+		loading = null;
+	}
+	
 	public void openFile(String fileName) {
-		new Thread(() -> {
+		if (loading != null)
+			loading.interrupt();
+		loading = new Thread(() -> {
+			Thread thread = Thread.currentThread();
 			OpenFileModel model;
-			try (InputStream is = getAssets().open(fileName)) {
-				String text = StreamUtilities.readFully(is);
-				model = OpenFileModels.of(fileName, text);
+			try {
+				model = OpenFileModels.of(fileName, loadAsset(fileName));
+			} catch (CancellationException | ClosedByInterruptException e) {
+				return;
 			} catch (Exception e) {
+				// an interrupt may also surface as another failure of the channel
+				if (thread.isInterrupted()) return;
 				e.printStackTrace();
-				model = OpenFileModels.of(fileName, e.getMessage());
+				model = OpenFileModels.of(fileName, String.valueOf(e));
+			}
+			OpenFileModel loaded = model;
+			runOnUiThread(() -> {
+				// a newer file is loading, or the activity is gone
+				if (loading != thread) return;
+				loading = null;
+				setTitle(fileName);
+				LanguageService.getInstance().open(loaded);
+			});
+		}, "Loading");
+		loading.start();
+	}
+	
+	private ImmutableText loadAsset(String fileName) throws IOException {
+		Thread thread = Thread.currentThread();
+		TextLoader.ProgressListener listener = (loaded, total) -> {
+			if (total > 0)
+				runOnUiThread(() -> {
+					if (loading == thread)
+						setTitle(fileName + " " + (loaded * 100 / total) + "%");
+				});
+		};
+		AssetFileDescriptor descriptor;
+		try {
+			descriptor = getAssets().openFd(fileName);
+		} catch (FileNotFoundException e) {
+			// compressed assets have no descriptor, they can only be streamed
+			try (InputStream is = getAssets().open(fileName)) {
+				return TextLoader.load(Channels.newChannel(is), -1, Charset.defaultCharset(), listener);
 			}
-			LanguageService.getInstance().open(model);
-		}).start();
+		}
+		try (FileInputStream stream = descriptor.createInputStream()) {
+			return TextLoader.load(stream.getChannel(), descriptor.getStartOffset(), descriptor.getLength(),
+					Charset.defaultCharset(), listener);
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,125 @@
+package com.weg.android.codeedittext.lang;
+
+import androidx.annotation.NonNull;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * A {@link CharStream} reading a {@link CharSequence} in place. Symbols are code points, but
+ * indexes are UTF-16 offsets, so token start and stop indexes are editor offsets.
+ */
+public class CharSequenceCharStream implements CharStream {
+	private final CharSequence text;
+	private final String name;
+	private int index;
+	private int reach;
+	
+	public CharSequenceCharStream(@NonNull CharSequence text, @NonNull String name) {
+		this.text = text;
+		this.name = name;
+	}
+	
+	@Override
+	public void consume() {
+		if (index >= text.length()) {
+			throw new IllegalStateException("cannot consume EOF");
+		}
+		char ch = text.charAt(index++);
+		if (Character.isHighSurrogate(ch) && index < text.length() && Character.isLowSurrogate(text.charAt(index))) {
+			index++;
+		}
+	}
+	
+	@Override
+	public int LA(int i) {
+		if (i == 0) return 0;
+		int offset = index;
+		int length = text.length();
+		if (i > 0) {
+			while (--i > 0) {
+				if (offset >= length) return IntStream.EOF;
+				offset += Character.charCount(codePointAt(offset));
+			}
+			if (offset >= length) {
+				// seeing the end depends on nothing being appended
+				reach = length + 1;
+				return IntStream.EOF;
+			}
+			int codePoint = codePointAt(offset);
+			reach = Math.max(reach, offset + Character.charCount(codePoint));
+			return codePoint;
+		}
+		while (i++ < 0) {
+			if (offset <= 0) return IntStream.EOF;
+			offset--;
+			if (offset > 0 && Character.isLowSurrogate(text.charAt(offset)) && Character.isHighSurrogate(text.charAt(offset - 1))) {
+				offset--;
+			}
+		}
+		return codePointAt(offset);
+	}
+	
+	/**
+	 * Returns the end of the furthest character looked at so far, or {@code size() + 1} once the
+	 * end was seen. Tokens lexed up to now depend on the text before this offset only.
+	 */
+	public int getReach() {
+		return reach;
+	}
+	
+	private int codePointAt(int offset) {
+		char ch = text.charAt(offset);
+		if (Character.isHighSurrogate(ch) && offset + 1 < text.length()) {
+			char low = text.charAt(offset + 1);
+			if (Character.isLowSurrogate(low)) {
+				return Character.toCodePoint(ch, low);
+			}
+		}
+		return ch;
+	}
+	
+	@Override
+	public int mark() {
+		return -1;
+	}
+	
+	@Override
+	public void release(int marker) {
+	}
+	
+	@Override
+	public int index() {
+		return index;
+	}
+	
+	@Override
+	public void seek(int index) {
+		this.index = Math.max(0, Math.min(index, text.length()));
+	}
+	
+	@Override
+	public int size() {
+		return text.length();
+	}
+	
+	@Override
+	public String getSourceName() {
+		return name;
+	}
+	
+	@Override
+	public String getText(Interval interval) {
+		int start = Math.max(0, interval.a);
+		int stop = Math.min(interval.b, text.length() - 1);
+		if (start > stop) return "";
+		return text.subSequence(start, stop + 1).toString();
+	}
+	
+	@NonNull
+	@Override
+	public String toString() {
+		return text.toString();
+	}
+}
@@ -4,15 +4,21 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.weg.android.codeedittext.MainActivity;
-import com.weg.android.codeedittext.StreamUtilities;
 import com.weg.android.editor.EditorView;
 import com.weg.android.editor.syntax.Highlighting;
 import com.weg.android.editor.text.TextChangeListener;
+import com.weg.android.editor.text.immutable.TextLoader;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 public final class LanguageService implements TextChangeListener {
 	
@@ -20,6 +26,7 @@ public final class LanguageService implements TextChangeListener {
 	}
 	
 	private static final LanguageService INSTANCE = new LanguageService();
+	private static final long HIGHLIGHTING_DELAY = 150L;
 	
 	public static LanguageService getInstance() {
 		return INSTANCE;
@@ -29,6 +36,22 @@ public final class LanguageService implements TextChangeListener {
 	private MainActivity activity;
 	private EditorView view;
 	private OpenFileModel model;
+	private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "LanguageService");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private ScheduledFuture<?> highlightingTask;
+	private final TextEditLog editLog = new TextEditLog();
+	/**
+	 * The version whose highlighting the view shows, moved along with the edits since, or -1.
+	 * Updates of a range are only applied on top of their base version. Only used on the UI thread.
+	 */
+	private int publishedVersion = -1;
+	/**
+	 * The version of the visible range update applied on top of the published version, or -1.
+	 */
+	private int partialVersion = -1;
 	
 	public void init(MainActivity activity, EditorView view) {
 		this.activity = activity;
@@ -47,33 +70,25 @@ public final class LanguageService implements TextChangeListener {
 		for (FileSupport support : supports) {
 			support.fileOpened(fileModel);
 		}
-		activity.runOnUiThread(() -> {
-			try {
-				view.setText(StreamUtilities.readFully(fileModel.getReader()));
+		CharSequence content = fileModel.getContent();
+		if (content == null) {
+			try (Reader reader = fileModel.getReader()) {
+				content = TextLoader.load(reader);
 			} catch (IOException e) {
-				view.setText(Objects.requireNonNull(e.getMessage()));
+				content = Objects.requireNonNull(e.getMessage());
 			}
-		});
+		}
+		CharSequence text = content;
+		activity.runOnUiThread(() -> view.setText(text));
 	}
 	
 	
 	@Override
 	public void textSet() {
-		OpenFileModel fileModel = OpenFileModels.of(model.getName(), view.getText());
-		new Thread(() -> {
-			for (FileSupport support : supports) {
-				for (String extension : support.getFileExtensions()) {
-					if (extension.equals(model.getExtension())) {
-						Highlighting.Builder builder = new Highlighting.Builder(128);
-						for (SyntaxHighlighting highlighting : support.getHighlightingList()) {
-							highlighting.highlighting(fileModel, builder);
-						}
-						activity.runOnUiThread(() -> view.setHighlighting(builder.build()));
-						break;
-					}
-				}
-			}
-		}).start();
+		editLog.reset(view.getModel().getVersion());
+		publishedVersion = -1;
+		partialVersion = -1;
+		scheduleHighlighting(0, false);
 	}
 	
 	@Override
@@ -83,58 +98,99 @@ public final class LanguageService implements TextChangeListener {
 	
 	@Override
 	public void textInserted(int index, @NonNull CharSequence text) {
-		OpenFileModel fileModel = OpenFileModels.of(model.getName(), view.getText());
-		new Thread(() -> {
-			for (FileSupport support : supports) {
-				for (String extension : support.getFileExtensions()) {
-					if (extension.equals(model.getExtension())) {
-						Highlighting.Builder builder = new Highlighting.Builder(128);
-						for (SyntaxHighlighting highlighting : support.getHighlightingList()) {
-							highlighting.highlighting(fileModel, builder);
-						}
-						activity.runOnUiThread(() -> view.setHighlighting(builder.build()));
-						break;
-					}
-				}
-			}
-		}).start();
+		editLog.record(view.getModel().getVersion(), index, index, index + text.length());
+		scheduleHighlighting(HIGHLIGHTING_DELAY, false);
 	}
 	
 	@Override
 	public void textDeleted(int start, int end) {
-		OpenFileModel fileModel = OpenFileModels.of(model.getName(), view.getText());
-		new Thread(() -> {
-			for (FileSupport support : supports) {
-				for (String extension : support.getFileExtensions()) {
-					if (extension.equals(model.getExtension())) {
-						Highlighting.Builder builder = new Highlighting.Builder(128);
-						for (SyntaxHighlighting highlighting : support.getHighlightingList()) {
-							highlighting.highlighting(fileModel, builder);
-						}
-						activity.runOnUiThread(() -> view.setHighlighting(builder.build()));
-						break;
-					}
-				}
-			}
-		}).start();
+		editLog.record(view.getModel().getVersion(), start, end, start);
+		scheduleHighlighting(HIGHLIGHTING_DELAY, false);
 	}
 	
 	@Override
 	public void textReplaced(int start, int end, @NonNull CharSequence newText) {
-		OpenFileModel fileModel = OpenFileModels.of(model.getName(), view.getText());
-		new Thread(() -> {
-			for (FileSupport support : supports) {
-				for (String extension : support.getFileExtensions()) {
-					if (extension.equals(model.getExtension())) {
-						Highlighting.Builder builder = new Highlighting.Builder(128);
-						for (SyntaxHighlighting highlighting : support.getHighlightingList()) {
-							highlighting.highlighting(fileModel, builder);
+		editLog.record(view.getModel().getVersion(), start, end, start + newText.length());
+		scheduleHighlighting(HIGHLIGHTING_DELAY, false);
+	}
+	
+	/**
+	 * Replaces the pending highlighting job by a new one reading the current text.
+	 * Called on the UI thread, the job runs on the single worker thread after the delay,
+	 * so a burst of edits results in one lex of the last version. The visible part of the text
+	 * is highlighted and shown first. Unless {@code full}, highlightings may give updates of the
+	 * changed range only.
+	 */
+	private void scheduleHighlighting(long delay, boolean full) {
+		if (model == null) return;
+		if (highlightingTask != null)
+			highlightingTask.cancel(true);
+		OpenFileModel fileModel = OpenFileModels.of(model.getName(), view.getSnapshot(), editLog);
+		int line = view.getLastVisibleLine() + 1;
+		int visibleEnd = line < view.getLineCount() ? view.getLineStart(line) : view.getCharCount();
+		highlightingTask = worker.schedule(() -> highlighting(fileModel, visibleEnd, full), delay, TimeUnit.MILLISECONDS);
+	}
+	
+	private void highlighting(OpenFileModel fileModel, int visibleEnd, boolean full) {
+		for (FileSupport support : supports) {
+			for (String extension : support.getFileExtensions()) {
+				if (extension.equals(fileModel.getExtension())) {
+					List<SyntaxHighlighting> highlightingList = support.getHighlightingList();
+					// a range update of one highlighting would drop the spans of the others
+					boolean rangeAllowed = !full && highlightingList.size() == 1;
+					Highlighting.Builder builder = new Highlighting.Builder(128);
+					builder.setRangeAllowed(rangeAllowed);
+					try {
+						boolean complete = true;
+						for (SyntaxHighlighting highlighting : highlightingList) {
+							complete &= highlighting.highlighting(fileModel, visibleEnd, builder);
+						}
+						if (!complete) {
+							publish(fileModel, builder, false);
+							builder = new Highlighting.Builder(128);
+							builder.setRangeAllowed(rangeAllowed);
+							for (SyntaxHighlighting highlighting : highlightingList) {
+								highlighting.highlighting(fileModel, builder);
+							}
 						}
-						activity.runOnUiThread(() -> view.setHighlighting(builder.build()));
-						break;
+					} catch (CancellationException e) {
+						return;
 					}
+					publish(fileModel, builder, true);
+					return;
 				}
 			}
-		}).start();
+		}
+	}
+	
+	private void publish(OpenFileModel fileModel, Highlighting.Builder builder, boolean complete) {
+		Highlighting highlighting = builder.build();
+		int version = fileModel.getVersion();
+		boolean range = builder.hasRange();
+		int baseVersion = builder.getBaseVersion();
+		int start = builder.getRangeStart();
+		int end = builder.getRangeEnd();
+		activity.runOnUiThread(() -> {
+			// drop the result if the text has moved on meanwhile, a newer job is on its way
+			if (view.getModel().getVersion() != version)
+				return;
+			if (!range) {
+				view.setHighlighting(highlighting);
+				publishedVersion = complete ? version : -1;
+				partialVersion = -1;
+			} else if (baseVersion == publishedVersion && (partialVersion == -1 || partialVersion == version)
+					&& view.getHighlighting() != null) {
+				view.spliceHighlighting(start, end, highlighting);
+				if (complete) {
+					publishedVersion = version;
+					partialVersion = -1;
+				} else {
+					partialVersion = version;
+				}
+			} else if (complete) {
+				// the view does not show the base of the update, ask for the whole highlighting
+				scheduleHighlighting(0, true);
+			}
+		});
 	}
 }
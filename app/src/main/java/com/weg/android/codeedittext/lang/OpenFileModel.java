@@ -1,6 +1,7 @@
 package com.weg.android.codeedittext.lang;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -16,6 +17,32 @@ public interface OpenFileModel {
 	@NonNull
 	String getName();
 	
+	/**
+	 * Returns the content of the file when it is already in memory, readers may then
+	 * use it in place instead of going through {@link #getReader()}.
+	 */
+	@Nullable
+	default CharSequence getContent() {
+		return null;
+	}
+	
+	/**
+	 * Returns the version of the editor text the content was taken at, or -1 if the
+	 * content does not come from the editor.
+	 */
+	default int getVersion() {
+		return -1;
+	}
+	
+	/**
+	 * Returns the range changed between the given version and the content, or null if it
+	 * is not known.
+	 */
+	@Nullable
+	default TextDamage getDamageSince(int version) {
+		return null;
+	}
+	
 	@NonNull
 	default String getExtension() {
 		String name = getName();
@@ -1,6 +1,10 @@
 package com.weg.android.codeedittext.lang;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.weg.android.editor.text.TextSnapshot;
+import com.weg.android.editor.text.immutable.ImmutableText;
 
 import java.io.File;
 import java.io.FileReader;
@@ -10,12 +14,14 @@ import java.io.StringReader;
 
 public class OpenFileModels {
 	
-	public static OpenFileModel of(String name, String text) {
+	public static OpenFileModel of(String name, CharSequence text) {
 		return new OpenFileModel() {
 			@NonNull
 			@Override
 			public Reader getReader() throws IOException {
-				return new StringReader(text);
+				if (text instanceof ImmutableText)
+					return ((ImmutableText) text).reader();
+				return new StringReader(text.toString());
 			}
 			
 			@NonNull
@@ -29,6 +35,51 @@ public class OpenFileModels {
 			public String getName() {
 				return name;
 			}
+			
+			@NonNull
+			@Override
+			public CharSequence getContent() {
+				return text;
+			}
+		};
+	}
+	
+	public static OpenFileModel of(String name, TextSnapshot snapshot, TextEditLog log) {
+		return new OpenFileModel() {
+			@NonNull
+			@Override
+			public Reader getReader() throws IOException {
+				return snapshot.getText().reader();
+			}
+			
+			@NonNull
+			@Override
+			public String getPath() {
+				return "";
+			}
+			
+			@NonNull
+			@Override
+			public String getName() {
+				return name;
+			}
+			
+			@NonNull
+			@Override
+			public CharSequence getContent() {
+				return snapshot.getText();
+			}
+			
+			@Override
+			public int getVersion() {
+				return snapshot.getVersion();
+			}
+			
+			@Nullable
+			@Override
+			public TextDamage getDamageSince(int version) {
+				return log.damage(version, snapshot.getVersion());
+			}
 		};
 	}
 	
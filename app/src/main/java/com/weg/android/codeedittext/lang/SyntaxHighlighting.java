@@ -2,6 +2,32 @@ package com.weg.android.codeedittext.lang;
 
 import com.weg.android.editor.syntax.Highlighting;
 
+import java.util.concurrent.CancellationException;
+
 public abstract class SyntaxHighlighting {
+	/**
+	 * Highlights the content of the model into the builder. Runs on the worker thread of
+	 * {@link LanguageService}, implementations should call {@link #checkCanceled()} regularly
+	 * so that a job superseded by a newer edit stops early.
+	 */
 	public abstract void highlighting(OpenFileModel model, Highlighting.Builder builder);
+	
+	/**
+	 * Highlights at least the content before {@code end}, the visible part of the editor, so that
+	 * it can be shown before the whole content is done. Returns false if the highlighting stopped
+	 * early, {@link #highlighting(OpenFileModel, Highlighting.Builder)} is then called again with
+	 * the same model for the whole content.
+	 */
+	public boolean highlighting(OpenFileModel model, int end, Highlighting.Builder builder) {
+		highlighting(model, builder);
+		return true;
+	}
+	
+	/**
+	 * Throws {@link CancellationException} if the current job has been canceled.
+	 */
+	protected static void checkCanceled() {
+		if (Thread.currentThread().isInterrupted())
+			throw new CancellationException();
+	}
 }
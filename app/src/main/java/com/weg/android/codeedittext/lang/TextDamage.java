@@ -0,0 +1,54 @@
+package com.weg.android.codeedittext.lang;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A changed range of text: {@code [start, oldEnd)} of the old text became
+ * {@code [start, newEnd)} of the new text.
+ */
+public final class TextDamage {
+	private final int start;
+	private final int oldEnd;
+	private final int newEnd;
+	
+	public TextDamage(int start, int oldEnd, int newEnd) {
+		this.start = start;
+		this.oldEnd = oldEnd;
+		this.newEnd = newEnd;
+	}
+	
+	public int getStart() {
+		return start;
+	}
+	
+	public int getOldEnd() {
+		return oldEnd;
+	}
+	
+	public int getNewEnd() {
+		return newEnd;
+	}
+	
+	/**
+	 * Returns the difference in length between the new text and the old one.
+	 */
+	public int getDelta() {
+		return newEnd - oldEnd;
+	}
+	
+	/**
+	 * Returns the damage of this change followed by {@code next}, whose offsets are in
+	 * the text after this change.
+	 */
+	@NonNull
+	public TextDamage then(@NonNull TextDamage next) {
+		int end = Math.max(newEnd, next.oldEnd);
+		return new TextDamage(Math.min(start, next.start), end - newEnd + oldEnd, end + next.newEnd - next.oldEnd);
+	}
+	
+	@NonNull
+	@Override
+	public String toString() {
+		return "TextDamage{" + start + ", " + oldEnd + " -> " + newEnd + '}';
+	}
+}
@@ -0,0 +1,64 @@
+package com.weg.android.codeedittext.lang;
+
+import androidx.annotation.Nullable;
+
+/**
+ * The last edits of the editor text, stamped with the version they produced. Written on the
+ * UI thread and read by highlighting jobs, which ask for the damage between the version they
+ * lexed last and the one they are lexing now.
+ */
+public final class TextEditLog {
+	private static final int CAPACITY = 256;
+	
+	private final int[] versions = new int[CAPACITY];
+	private final int[] starts = new int[CAPACITY];
+	private final int[] oldEnds = new int[CAPACITY];
+	private final int[] newEnds = new int[CAPACITY];
+	private int head;
+	private int size;
+	/**
+	 * The oldest version edits are known from.
+	 */
+	private int baseVersion = Integer.MAX_VALUE;
+	
+	/**
+	 * Forgets all edits, the text has been replaced as a whole at the given version.
+	 */
+	public synchronized void reset(int version) {
+		head = 0;
+		size = 0;
+		baseVersion = version;
+	}
+	
+	public synchronized void record(int version, int start, int oldEnd, int newEnd) {
+		if (size == CAPACITY) {
+			baseVersion = versions[head];
+			head = (head + 1) % CAPACITY;
+			size--;
+		}
+		int i = (head + size) % CAPACITY;
+		versions[i] = version;
+		starts[i] = start;
+		oldEnds[i] = oldEnd;
+		newEnds[i] = newEnd;
+		size++;
+	}
+	
+	/**
+	 * Returns the damage between two versions, or null if the edits in between are not
+	 * known anymore.
+	 */
+	@Nullable
+	public synchronized TextDamage damage(int fromVersion, int toVersion) {
+		if (fromVersion < baseVersion || fromVersion >= toVersion) return null;
+		TextDamage damage = null;
+		for (int n = 0; n < size; n++) {
+			int i = (head + n) % CAPACITY;
+			if (versions[i] <= fromVersion) continue;
+			if (versions[i] > toVersion) break;
+			TextDamage edit = new TextDamage(starts[i], oldEnds[i], newEnds[i]);
+			damage = damage == null ? edit : damage.then(edit);
+		}
+		return damage;
+	}
+}
@@ -0,0 +1,137 @@
+package com.weg.android.codeedittext.lang.typescript;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The highlighted tokens of a text version, plus the lexer state at line starts so that
+ * the next version can be lexed again from the line before an edit.
+ */
+final class LexedText {
+	final int version;
+	
+	int tokenCount;
+	int[] tokenTypes;
+	int[] tokenStarts;
+	int[] tokenEnds;
+	
+	int checkpointCount;
+	int[] checkpointOffsets;
+	/**
+	 * The end of the text the lexer looked at to reach each checkpoint, nondecreasing.
+	 * A checkpoint stays valid for an edit starting at or after its reach.
+	 */
+	int[] checkpointReaches;
+	TypeScriptLexerBase.State[] checkpointStates;
+	
+	LexedText(int version, int tokenCapacity, int checkpointCapacity) {
+		this.version = version;
+		tokenTypes = new int[Math.max(16, tokenCapacity)];
+		tokenStarts = new int[tokenTypes.length];
+		tokenEnds = new int[tokenTypes.length];
+		checkpointOffsets = new int[Math.max(16, checkpointCapacity)];
+		checkpointReaches = new int[checkpointOffsets.length];
+		checkpointStates = new TypeScriptLexerBase.State[checkpointOffsets.length];
+	}
+	
+	void addToken(int type, int start, int end) {
+		if (tokenCount == tokenTypes.length) {
+			int capacity = tokenCount + (tokenCount >> 1);
+			tokenTypes = Arrays.copyOf(tokenTypes, capacity);
+			tokenStarts = Arrays.copyOf(tokenStarts, capacity);
+			tokenEnds = Arrays.copyOf(tokenEnds, capacity);
+		}
+		tokenTypes[tokenCount] = type;
+		tokenStarts[tokenCount] = start;
+		tokenEnds[tokenCount] = end;
+		tokenCount++;
+	}
+	
+	void addCheckpoint(int offset, int reach, TypeScriptLexerBase.State state) {
+		if (checkpointCount == checkpointOffsets.length) {
+			int capacity = checkpointCount + (checkpointCount >> 1);
+			checkpointOffsets = Arrays.copyOf(checkpointOffsets, capacity);
+			checkpointReaches = Arrays.copyOf(checkpointReaches, capacity);
+			checkpointStates = Arrays.copyOf(checkpointStates, capacity);
+		}
+		checkpointOffsets[checkpointCount] = offset;
+		checkpointReaches[checkpointCount] = reach;
+		checkpointStates[checkpointCount] = state;
+		checkpointCount++;
+	}
+	
+	/**
+	 * Returns the last checkpoint not depending on the text at or after {@code offset}.
+	 */
+	int checkpointBefore(int offset) {
+		int low = 0;
+		int high = checkpointCount - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (checkpointReaches[mid] <= offset)
+				low = mid;
+			else
+				high = mid - 1;
+		}
+		return low;
+	}
+	
+	/**
+	 * Copies the tokens and checkpoints before the given checkpoint, and the checkpoint itself.
+	 */
+	void copyPrefix(LexedText from, int checkpoint) {
+		int offset = from.checkpointOffsets[checkpoint];
+		int tokens = firstTokenAt(from, offset);
+		for (int i = 0; i < tokens; i++) {
+			addToken(from.tokenTypes[i], from.tokenStarts[i], from.tokenEnds[i]);
+		}
+		for (int i = 0; i <= checkpoint; i++) {
+			addCheckpoint(from.checkpointOffsets[i], from.checkpointReaches[i], from.checkpointStates[i]);
+		}
+	}
+	
+	/**
+	 * Copies the tokens and checkpoints from the given checkpoint on, moved by {@code delta}.
+	 * Their reach is at least {@code reach}, the reach of the text lexed before them.
+	 */
+	void copySuffix(LexedText from, int checkpoint, int delta, int reach) {
+		for (int i = firstTokenAt(from, from.checkpointOffsets[checkpoint]); i < from.tokenCount; i++) {
+			addToken(from.tokenTypes[i], from.tokenStarts[i] + delta, from.tokenEnds[i] + delta);
+		}
+		for (int i = checkpoint; i < from.checkpointCount; i++) {
+			addCheckpoint(from.checkpointOffsets[i] + delta, Math.max(reach, from.checkpointReaches[i] + delta), from.checkpointStates[i]);
+		}
+	}
+	
+	/**
+	 * Returns the index of the checkpoint at {@code offset} searching from {@code fromIndex},
+	 * or the index of the first checkpoint after it.
+	 */
+	int nextCheckpoint(int fromIndex, int offset) {
+		while (fromIndex < checkpointCount && checkpointOffsets[fromIndex] < offset) {
+			fromIndex++;
+		}
+		return fromIndex;
+	}
+	
+	boolean isCheckpoint(int index, int offset, TypeScriptLexerBase.State state) {
+		return index < checkpointCount && checkpointOffsets[index] == offset
+				&& Objects.equals(checkpointStates[index], state);
+	}
+	
+	/**
+	 * Returns the index of the first token starting at or after {@code offset}.
+	 */
+	static int firstTokenAt(LexedText text, int offset) {
+		int low = 0;
+		int high = text.tokenCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (text.tokenStarts[mid] < offset)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+}
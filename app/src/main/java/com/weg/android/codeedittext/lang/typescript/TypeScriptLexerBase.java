@@ -2,6 +2,7 @@ package com.weg.android.codeedittext.lang.typescript;
 
 import org.antlr.v4.runtime.*;
 
+import java.util.Arrays;
 import java.util.Stack;
 
 /**
@@ -42,6 +43,110 @@ public abstract class TypeScriptLexerBase extends Lexer
         super(input);
     }
 
+    /**
+     * Lexer state between two tokens: the mode stack and everything the
+     * semantic predicates look at. Lexing from a saved state produces the same
+     * tokens as lexing through the text before it.
+     */
+    public static final class State
+    {
+        private final int mode;
+        private final int[] modeStack;
+        private final int templateDepth;
+        private final boolean[] scopeStrictModes;
+        private final boolean useStrictCurrent;
+        private final int lastTokenType;
+
+        private State(TypeScriptLexerBase lexer) {
+            mode = lexer._mode;
+            modeStack = lexer._modeStack.toArray();
+            templateDepth = lexer.templateDepth;
+            scopeStrictModes = new boolean[lexer.scopeStrictModes.size()];
+            for (int i = 0; i < scopeStrictModes.length; i++) {
+                scopeStrictModes[i] = lexer.scopeStrictModes.get(i);
+            }
+            useStrictCurrent = lexer.useStrictCurrent;
+            lastTokenType = lexer.lastToken != null ? lexer.lastToken.getType() : Token.INVALID_TYPE;
+        }
+
+        private boolean matches(TypeScriptLexerBase lexer) {
+            if (mode != lexer._mode || templateDepth != lexer.templateDepth
+                    || useStrictCurrent != lexer.useStrictCurrent
+                    || lastTokenType != (lexer.lastToken != null ? lexer.lastToken.getType() : Token.INVALID_TYPE)
+                    || modeStack.length != lexer._modeStack.size()
+                    || scopeStrictModes.length != lexer.scopeStrictModes.size())
+                return false;
+            for (int i = 0; i < modeStack.length; i++) {
+                if (modeStack[i] != lexer._modeStack.get(i))
+                    return false;
+            }
+            for (int i = 0; i < scopeStrictModes.length; i++) {
+                if (scopeStrictModes[i] != lexer.scopeStrictModes.get(i))
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            State state = (State) o;
+            return mode == state.mode && templateDepth == state.templateDepth
+                    && useStrictCurrent == state.useStrictCurrent && lastTokenType == state.lastTokenType
+                    && Arrays.equals(modeStack, state.modeStack)
+                    && Arrays.equals(scopeStrictModes, state.scopeStrictModes);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mode;
+            result = 31 * result + Arrays.hashCode(modeStack);
+            result = 31 * result + templateDepth;
+            result = 31 * result + Arrays.hashCode(scopeStrictModes);
+            result = 31 * result + (useStrictCurrent ? 1 : 0);
+            result = 31 * result + lastTokenType;
+            return result;
+        }
+    }
+
+    /**
+     * Returns the current state, or {@code previous} if it is equal, so that
+     * consecutive equal states share one instance.
+     */
+    public State saveState(State previous) {
+        if (previous != null && previous.matches(this))
+            return previous;
+        return new State(this);
+    }
+
+    /**
+     * Restores a state returned by {@link #saveState(State)}, or the initial
+     * state if {@code state} is null. Call after {@link #setInputStream(CharStream)},
+     * which resets the mode stack only.
+     */
+    public void restoreState(State state) {
+        _modeStack.clear();
+        scopeStrictModes.clear();
+        if (state == null) {
+            _mode = Lexer.DEFAULT_MODE;
+            templateDepth = 0;
+            useStrictCurrent = useStrictDefault;
+            lastToken = null;
+            return;
+        }
+        _mode = state.mode;
+        for (int mode : state.modeStack) {
+            _modeStack.push(mode);
+        }
+        templateDepth = state.templateDepth;
+        for (boolean strict : state.scopeStrictModes) {
+            scopeStrictModes.push(strict);
+        }
+        useStrictCurrent = state.useStrictCurrent;
+        lastToken = state.lastTokenType != Token.INVALID_TYPE ? new CommonToken(state.lastTokenType) : null;
+    }
+
     public boolean getStrictDefault() {
         return useStrictDefault;
     }
@@ -9,14 +9,17 @@ import static com.weg.android.codeedittext.lang.typescript.TypeScriptLexer.Strin
 import static com.weg.android.codeedittext.lang.typescript.TypeScriptLexer.Void;
 import static com.weg.android.codeedittext.lang.typescript.TypeScriptLexer.*;
 
-import static org.antlr.v4.runtime.CharStreams.*;
+import androidx.annotation.Nullable;
 
+import com.weg.android.codeedittext.StreamUtilities;
+import com.weg.android.codeedittext.lang.CharSequenceCharStream;
 import com.weg.android.codeedittext.lang.OpenFileModel;
 import com.weg.android.codeedittext.lang.SyntaxHighlighting;
+import com.weg.android.codeedittext.lang.TextDamage;
+import com.weg.android.editor.TokenType;
 import com.weg.android.editor.TokenTypes;
 import com.weg.android.editor.syntax.Highlighting;
 
-import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.Token;
 
 import java.io.IOException;
@@ -25,158 +28,311 @@ public class TypeScriptSyntaxHighlighting extends SyntaxHighlighting {
 	
 	private final TypeScriptLexer lexer = new TypeScriptLexer(null);
 	private final TypeScriptParser parser = new TypeScriptParser(null);
+	/**
+	 * The last lexed version of the editor text, and the lexing stopped after the visible
+	 * range, only used by the highlighting thread.
+	 */
+	@Nullable
+	private LexedText lexed;
+	@Nullable
+	private String lexedName;
+	@Nullable
+	private Lexing pending;
 	
 	@Override
 	public void highlighting(OpenFileModel view, Highlighting.Builder builder) {
-		try {
-			lexer.setInputStream(fromReader(view.getReader()));
-			CommonTokenStream tokens = new CommonTokenStream(lexer);
-			tokens.fill();
-			for (Token token : tokens.getTokens()) {
+		highlighting(view, Integer.MAX_VALUE, builder);
+	}
+	
+	@Override
+	public boolean highlighting(OpenFileModel view, int end, Highlighting.Builder builder) {
+		Lexing lexing = pending != null && pending.isFor(view) ? pending : startLexing(view);
+		// the lexer state is only valid for the pending lexing until it throws
+		pending = null;
+		boolean complete = lexing.run(end);
+		if (!complete)
+			pending = lexing;
+		else if (view.getVersion() != -1) {
+			lexed = lexing.result;
+			lexedName = view.getName();
+		}
+		lexing.emit(builder);
+		return complete;
+	}
+	
+	private Lexing startLexing(OpenFileModel view) {
+		CharSequence content = view.getContent();
+		if (content == null) {
+			try {
+				content = StreamUtilities.readFully(view.getReader());
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			return new Lexing(content, view, null, null);
+		}
+		LexedText previous = view.getName().equals(lexedName) ? lexed : null;
+		if (previous != null && previous.version == view.getVersion())
+			return new Lexing(view, previous);
+		TextDamage damage = previous != null ? view.getDamageSince(previous.version) : null;
+		return new Lexing(content, view, damage != null ? previous : null, damage);
+	}
+	
+	/**
+	 * Lexes the content, or with a previous version and the damage since, lexes again from
+	 * the last line start before the damage until the lexer state at a line start after it
+	 * matches the previous one, and reuses the previous tokens before and after.
+	 * Nothing is shared with {@link #lexed} until the result is complete, so a canceled job
+	 * leaves the previous result usable.
+	 */
+	private final class Lexing {
+		private final OpenFileModel view;
+		private final CharSequenceCharStream input;
+		private final LexedText result;
+		@Nullable
+		private final LexedText previous;
+		@Nullable
+		private final TextDamage damage;
+		private TypeScriptLexerBase.State state;
+		private int reach;
+		private int next;
+		private int start;
+		private int offset;
+		private int resyncOffset = Integer.MAX_VALUE;
+		private boolean complete;
+		
+		Lexing(OpenFileModel view, LexedText lexed) {
+			this.view = view;
+			this.input = null;
+			this.result = lexed;
+			this.previous = null;
+			this.damage = null;
+			this.complete = true;
+		}
+		
+		Lexing(CharSequence content, OpenFileModel view, @Nullable LexedText previous, @Nullable TextDamage damage) {
+			this.view = view;
+			this.input = new CharSequenceCharStream(content, view.getName());
+			this.previous = previous;
+			this.damage = damage;
+			lexer.setInputStream(input);
+			if (previous == null || damage == null) {
+				result = new LexedText(view.getVersion(), content.length() / 8, content.length() / 32);
+				result.addCheckpoint(0, 0, null);
+			} else {
+				result = new LexedText(view.getVersion(), previous.tokenCount, previous.checkpointCount);
+				int checkpoint = previous.checkpointBefore(damage.getStart());
+				result.copyPrefix(previous, checkpoint);
+				state = previous.checkpointStates[checkpoint];
+				reach = previous.checkpointReaches[checkpoint];
+				start = offset = previous.checkpointOffsets[checkpoint];
+				input.seek(offset);
+				next = checkpoint + 1;
+			}
+			lexer.restoreState(state);
+		}
+		
+		boolean isFor(OpenFileModel view) {
+			return this.view.getVersion() == view.getVersion() && this.view.getName().equals(view.getName());
+		}
+		
+		/**
+		 * Lexes up to the first line start at or after {@code end}, returns true once the whole
+		 * content is lexed.
+		 */
+		boolean run(int end) {
+			if (complete) return true;
+			for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+				checkCanceled();
 				int type = token.getType();
-				int start = token.getStartIndex();
-				int end = token.getStopIndex() + 1;
-				switch (type) {
-					case MultiLineComment:
-					case SingleLineComment:
-					case HtmlComment:
-					case CDataComment:
-						builder.highlight(TokenTypes.COMMENT, start, end);
-						break;
-					case OpenBracket:
-					case CloseBracket:
-					case OpenParen:
-					case CloseParen:
-					case OpenBrace:
-					case TemplateCloseBrace:
-					case CloseBrace:
-					case SemiColon:
-					case Comma:
-					case Assign:
-					case QuestionMark:
-					case Colon:
-					case Ellipsis:
-					case Dot:
-						builder.highlight(TokenTypes.SEPARATOR, start, end);
-						break;
-					case PlusPlus:
-					case MinusMinus:
-					case Plus:
-					case Minus:
-					case BitNot:
-					case Not:
-					case Multiply:
-					case Divide:
-					case Modulus:
-					case RightShiftArithmetic:
-					case LeftShiftArithmetic:
-					case RightShiftLogical:
-					case LessThan:
-					case MoreThan:
-					case LessThanEquals:
-					case GreaterThanEquals:
-					case Equals_:
-					case NotEquals:
-					case IdentityEquals:
-					case IdentityNotEquals:
-					case BitAnd:
-					case BitXOr:
-					case BitOr:
-					case And:
-					case Or:
-					case MultiplyAssign:
-					case DivideAssign:
-					case ModulusAssign:
-					case PlusAssign:
-					case MinusAssign:
-					case LeftShiftArithmeticAssign:
-					case RightShiftArithmeticAssign:
-					case RightShiftLogicalAssign:
-					case BitAndAssign:
-					case BitXorAssign:
-					case BitOrAssign:
-					case ARROW:
-						builder.highlight(TokenTypes.OPERATOR, start, end);
-						break;
-					case Break:
-					case Do:
-					case Instanceof:
-					case Typeof:
-					case Case:
-					case Else:
-					case New:
-					case Var:
-					case Catch:
-					case Finally:
-					case Return:
-					case Void:
-					case Continue:
-					case For:
-					case Switch:
-					case While:
-					case Debugger:
-					case Function_:
-					case This:
-					case With:
-					case Default:
-					case If:
-					case Throw:
-					case Delete:
-					case In:
-					case Try:
-					case As:
-					case From:
-					case ReadOnly:
-					case Async:
-					case Class:
-					case Enum:
-					case Extends:
-					case Super:
-					case Const:
-					case Export:
-					case Import:
-					case Implements:
-					case Let:
-					case Private:
-					case Public:
-					case Interface:
-					case Package:
-					case Protected:
-					case Static:
-					case Yield:
-					case Any:
-					case Number:
-					case Boolean:
-					case String:
-					case Symbol:
-					case TypeAlias:
-					case Get:
-					case Set:
-					case Constructor:
-					case Namespace:
-					case Require:
-					case Module:
-					case Declare:
-					case Abstract:
-					case Is:
-					case NullLiteral:
-					case BooleanLiteral:
-						builder.highlight(TokenTypes.KEYWORD, start, end);
-						break;
-					case BinaryIntegerLiteral:
-					case OctalIntegerLiteral2:
-					case OctalIntegerLiteral:
-					case HexIntegerLiteral:
-					case DecimalLiteral:
-						builder.highlight(TokenTypes.NUMBER, start, end);
-						break;
-					case StringLiteral:
-						builder.highlight(TokenTypes.STRING, start, end);
-						break;
+				int stop = token.getStopIndex() + 1;
+				if (type == LineTerminator) {
+					state = lexer.saveState(state);
+					offset = stop;
+					int checkpointReach = Math.max(reach, input.getReach());
+					if (previous != null && stop >= damage.getNewEnd()) {
+						int previousOffset = stop - damage.getDelta();
+						next = previous.nextCheckpoint(next, previousOffset);
+						if (previous.isCheckpoint(next, previousOffset, state)) {
+							// the rest lexes as before, only moved
+							result.copySuffix(previous, next, damage.getDelta(), checkpointReach);
+							resyncOffset = stop;
+							return complete = true;
+						}
+					}
+					result.addCheckpoint(stop, checkpointReach, state);
+					if (stop >= end)
+						return false;
+				} else if (tokenType(type) != null) {
+					result.addToken(type, token.getStartIndex(), stop);
 				}
 			}
-		} catch (IOException e) {
-			throw new RuntimeException(e);
+			return complete = true;
+		}
+		
+		/**
+		 * Highlights the tokens lexed by this run only, as an update of the previous version,
+		 * if the builder allows. Otherwise highlights all lexed tokens, and while incomplete, the
+		 * previous tokens after the lexed part moved by the damage, which will mostly be right.
+		 */
+		void emit(Highlighting.Builder builder) {
+			if (previous != null && builder.isRangeAllowed()) {
+				int end = complete ? resyncOffset : offset;
+				int to = complete ? LexedText.firstTokenAt(result, end) : result.tokenCount;
+				emit(builder, result, LexedText.firstTokenAt(result, start), to, 0);
+				builder.setRange(previous.version, start, end);
+				return;
+			}
+			emit(builder, result, 0, result.tokenCount, 0);
+			if (!complete && previous != null) {
+				int from = LexedText.firstTokenAt(previous, Math.max(offset - damage.getDelta(), damage.getOldEnd()));
+				emit(builder, previous, from, previous.tokenCount, damage.getDelta());
+			}
+		}
+		
+		private void emit(Highlighting.Builder builder, LexedText text, int from, int to, int delta) {
+			for (int i = from; i < to; i++) {
+				TokenType type = tokenType(text.tokenTypes[i]);
+				if (type != null)
+					builder.highlight(type, text.tokenStarts[i] + delta, text.tokenEnds[i] + delta);
+			}
+		}
+	}
+	
+	@Nullable
+	private static TokenType tokenType(int type) {
+		switch (type) {
+			case MultiLineComment:
+			case SingleLineComment:
+			case HtmlComment:
+			case CDataComment:
+				return TokenTypes.COMMENT;
+			case OpenBracket:
+			case CloseBracket:
+			case OpenParen:
+			case CloseParen:
+			case OpenBrace:
+			case TemplateCloseBrace:
+			case CloseBrace:
+			case SemiColon:
+			case Comma:
+			case Assign:
+			case QuestionMark:
+			case Colon:
+			case Ellipsis:
+			case Dot:
+				return TokenTypes.SEPARATOR;
+			case PlusPlus:
+			case MinusMinus:
+			case Plus:
+			case Minus:
+			case BitNot:
+			case Not:
+			case Multiply:
+			case Divide:
+			case Modulus:
+			case RightShiftArithmetic:
+			case LeftShiftArithmetic:
+			case RightShiftLogical:
+			case LessThan:
+			case MoreThan:
+			case LessThanEquals:
+			case GreaterThanEquals:
+			case Equals_:
+			case NotEquals:
+			case IdentityEquals:
+			case IdentityNotEquals:
+			case BitAnd:
+			case BitXOr:
+			case BitOr:
+			case And:
+			case Or:
+			case MultiplyAssign:
+			case DivideAssign:
+			case ModulusAssign:
+			case PlusAssign:
+			case MinusAssign:
+			case LeftShiftArithmeticAssign:
+			case RightShiftArithmeticAssign:
+			case RightShiftLogicalAssign:
+			case BitAndAssign:
+			case BitXorAssign:
+			case BitOrAssign:
+			case ARROW:
+				return TokenTypes.OPERATOR;
+			case Break:
+			case Do:
+			case Instanceof:
+			case Typeof:
+			case Case:
+			case Else:
+			case New:
+			case Var:
+			case Catch:
+			case Finally:
+			case Return:
+			case Void:
+			case Continue:
+			case For:
+			case Switch:
+			case While:
+			case Debugger:
+			case Function_:
+			case This:
+			case With:
+			case Default:
+			case If:
+			case Throw:
+			case Delete:
+			case In:
+			case Try:
+			case As:
+			case From:
+			case ReadOnly:
+			case Async:
+			case Class:
+			case Enum:
+			case Extends:
+			case Super:
+			case Const:
+			case Export:
+			case Import:
+			case Implements:
+			case Let:
+			case Private:
+			case Public:
+			case Interface:
+			case Package:
+			case Protected:
+			case Static:
+			case Yield:
+			case Any:
+			case Number:
+			case Boolean:
+			case String:
+			case Symbol:
+			case TypeAlias:
+			case Get:
+			case Set:
+			case Constructor:
+			case Namespace:
+			case Require:
+			case Module:
+			case Declare:
+			case Abstract:
+			case Is:
+			case NullLiteral:
+			case BooleanLiteral:
+				return TokenTypes.KEYWORD;
+			case BinaryIntegerLiteral:
+			case OctalIntegerLiteral2:
+			case OctalIntegerLiteral:
+			case HexIntegerLiteral:
+			case DecimalLiteral:
+				return TokenTypes.NUMBER;
+			case StringLiteral:
+				return TokenTypes.STRING;
+			default:
+				return null;
 		}
 	}
 }
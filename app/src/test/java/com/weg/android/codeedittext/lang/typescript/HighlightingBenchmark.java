@@ -0,0 +1,85 @@
+package com.weg.android.codeedittext.lang.typescript;
+
+import androidx.annotation.NonNull;
+
+import com.weg.android.codeedittext.lang.OpenFileModel;
+import com.weg.android.editor.syntax.Highlighting;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Measures how long opening a file takes to highlight the first screen, and then the whole
+ * file, as {@link com.weg.android.codeedittext.lang.LanguageService} does. Run from the app
+ * module directory, optionally with the asset to open and the number of visible lines:
+ * <pre>java HighlightingBenchmark [checker.ts] [60]</pre>
+ */
+public class HighlightingBenchmark {
+	
+	public static void main(String[] args) throws IOException {
+		String name = args.length > 0 ? args[0] : "checker.ts";
+		int visibleLines = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+		String text = new String(Files.readAllBytes(Paths.get("src/main/assets", name)), StandardCharsets.UTF_8);
+		int visibleEnd = 0;
+		for (int line = 0; line < visibleLines && visibleEnd >= 0; line++) {
+			visibleEnd = text.indexOf('\n', visibleEnd);
+			if (visibleEnd >= 0) visibleEnd++;
+		}
+		if (visibleEnd < 0) visibleEnd = text.length();
+		OpenFileModel model = model(name, text);
+		
+		for (int run = 0; run < 3; run++) {
+			TypeScriptSyntaxHighlighting highlighting = new TypeScriptSyntaxHighlighting();
+			long start = System.nanoTime();
+			Highlighting.Builder builder = new Highlighting.Builder(128);
+			boolean complete = highlighting.highlighting(model, visibleEnd, builder);
+			long visible = System.nanoTime();
+			int visibleSpans = builder.build().size();
+			if (!complete) {
+				builder = new Highlighting.Builder(128);
+				highlighting.highlighting(model, builder);
+			}
+			long whole = System.nanoTime();
+			System.out.printf("%s, %d chars: first %d lines in %d ms (%d spans), whole file in %d ms (%d spans)%n",
+					name, text.length(), visibleLines, (visible - start) / 1000000, visibleSpans,
+					(whole - start) / 1000000, builder.build().size());
+		}
+	}
+	
+	private static OpenFileModel model(String name, String text) {
+		return new OpenFileModel() {
+			@NonNull
+			@Override
+			public Reader getReader() {
+				return new StringReader(text);
+			}
+			
+			@NonNull
+			@Override
+			public String getPath() {
+				return "";
+			}
+			
+			@NonNull
+			@Override
+			public String getName() {
+				return name;
+			}
+			
+			@NonNull
+			@Override
+			public CharSequence getContent() {
+				return text;
+			}
+			
+			@Override
+			public int getVersion() {
+				return 0;
+			}
+		};
+	}
+}
@@ -0,0 +1,196 @@
+package com.weg.android.codeedittext.lang.typescript;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.weg.android.codeedittext.lang.OpenFileModel;
+import com.weg.android.codeedittext.lang.OpenFileModels;
+import com.weg.android.codeedittext.lang.TextDamage;
+import com.weg.android.codeedittext.lang.TextEditLog;
+import com.weg.android.editor.syntax.Highlighting;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Edits TypeScript at random and checks that the incremental highlighting of each version,
+ * applied to the previous one as {@link com.weg.android.codeedittext.lang.LanguageService}
+ * does, equals the highlighting of a full lex.
+ */
+public class IncrementalLexingTest {
+	private static final String NAME = "test.ts";
+	/**
+	 * Inserted at random, the pieces that open or close a lexer mode or a multi-line token.
+	 */
+	private static final String[] FRAGMENTS = {
+			"/*", "*/", "//", "`", "${", "}", "{", "'", "\"", "\\", "\n", "\r\n", " ", "x", "1",
+			"/ab/g", "<div>", "`a${b}c`\n", "/* x\n y */", "let s = 'a';\n", "\"use strict\";\n",
+	};
+	
+	private final Random random = new Random(20230108);
+	private final TextEditLog log = new TextEditLog();
+	/**
+	 * Lexes whole texts only, they have no version to be lexed incrementally from.
+	 */
+	private final TypeScriptSyntaxHighlighting fullLexing = new TypeScriptSyntaxHighlighting();
+	private String text;
+	private int version;
+	/**
+	 * The version whose highlighting, moved by the edits since, is shown.
+	 */
+	private int shownVersion;
+	
+	@Test
+	public void incrementalLexingMatchesFullLexing() throws IOException {
+		String source = new String(Files.readAllBytes(Paths.get("src/main/assets/pieceTreeBase.ts")),
+				StandardCharsets.UTF_8);
+		for (int round = 0; round < 8; round++) {
+			int start = random.nextInt(source.length() - 4096);
+			runEdits(source.substring(start, start + 512 + random.nextInt(3584)), round);
+		}
+	}
+	
+	@Test
+	public void incrementalLexingMatchesFullLexingOfFragments() {
+		for (int round = 0; round < 30; round++) {
+			StringBuilder builder = new StringBuilder();
+			for (int i = random.nextInt(200); i > 0; i--) {
+				builder.append(fragment());
+			}
+			runEdits(builder.toString(), round);
+		}
+	}
+	
+	private void runEdits(String source, int round) {
+		TypeScriptSyntaxHighlighting highlighting = new TypeScriptSyntaxHighlighting();
+		text = source;
+		version++;
+		log.reset(version);
+		Highlighting.Builder initial = newBuilder(false);
+		highlighting.highlighting(model(), initial);
+		Highlighting shown = initial.build();
+		shownVersion = version;
+		for (int step = 0; step < 40; step++) {
+			for (int edits = 1 + random.nextInt(3); edits > 0; edits--) {
+				edit(shown);
+			}
+			String context = "round " + round + " step " + step + " version " + version;
+			boolean rangeAllowed = random.nextBoolean();
+			Highlighting.Builder builder = newBuilder(rangeAllowed);
+			OpenFileModel model = model();
+			if (!highlighting.highlighting(model, random.nextInt(text.length() + 1), builder)) {
+				if (random.nextInt(8) == 0) {
+					// a job canceled after the visible part, its lexer state is dropped
+					continue;
+				}
+				shown = apply(shown, builder);
+				builder = newBuilder(rangeAllowed);
+				highlighting.highlighting(model, builder);
+			}
+			shown = apply(shown, builder);
+			shownVersion = version;
+			assertEquals(context, fullHighlighting(), shown);
+			if (!rangeAllowed)
+				continue;
+			// the tokens kept for the next version are the full ones too
+			Highlighting.Builder whole = newBuilder(false);
+			highlighting.highlighting(model, whole);
+			assertEquals(context, fullHighlighting(), whole.build());
+		}
+	}
+	
+	private String fragment() {
+		return FRAGMENTS[random.nextInt(FRAGMENTS.length)];
+	}
+	
+	/**
+	 * Inserts, deletes or replaces a random range, and moves the shown spans as the editor does.
+	 */
+	private void edit(Highlighting shown) {
+		int start = random.nextInt(text.length() + 1);
+		int end = Math.min(text.length(), start + (random.nextBoolean() ? 0 : random.nextInt(40)));
+		String inserted = random.nextInt(4) == 0 ? "" : fragment();
+		text = text.substring(0, start) + inserted + text.substring(end);
+		version++;
+		log.record(version, start, end, start + inserted.length());
+		if (end > start)
+			shown.textDeleted(start, end);
+		if (!inserted.isEmpty())
+			shown.textInserted(start, inserted.length());
+	}
+	
+	private Highlighting apply(Highlighting shown, Highlighting.Builder builder) {
+		if (!builder.hasRange())
+			return builder.build();
+		assertEquals("base version", shownVersion, builder.getBaseVersion());
+		shown.splice(builder.getRangeStart(), builder.getRangeEnd(), builder.build());
+		return shown;
+	}
+	
+	private Highlighting fullHighlighting() {
+		Highlighting.Builder builder = newBuilder(false);
+		fullLexing.highlighting(OpenFileModels.of(NAME, text), builder);
+		assertFalse(builder.hasRange());
+		return builder.build();
+	}
+	
+	private static Highlighting.Builder newBuilder(boolean rangeAllowed) {
+		Highlighting.Builder builder = new Highlighting.Builder(128);
+		builder.setRangeAllowed(rangeAllowed);
+		return builder;
+	}
+	
+	/**
+	 * The current text as the editor hands it over, with its version and the edit log.
+	 */
+	private OpenFileModel model() {
+		final String content = text;
+		final int contentVersion = version;
+		return new OpenFileModel() {
+			@NonNull
+			@Override
+			public Reader getReader() {
+				return new StringReader(content);
+			}
+			
+			@NonNull
+			@Override
+			public String getPath() {
+				return "";
+			}
+			
+			@NonNull
+			@Override
+			public String getName() {
+				return NAME;
+			}
+			
+			@NonNull
+			@Override
+			public CharSequence getContent() {
+				return content;
+			}
+			
+			@Override
+			public int getVersion() {
+				return contentVersion;
+			}
+			
+			@Nullable
+			@Override
+			public TextDamage getDamageSince(int since) {
+				return log.damage(since, contentVersion);
+			}
+		};
+	}
+}
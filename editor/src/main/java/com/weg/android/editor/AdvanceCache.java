@@ -0,0 +1,164 @@
+package com.weg.android.editor;
+
+import android.graphics.Paint;
+import android.util.SparseIntArray;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * The advances of the code points drawn with a paint configuration, measured once for each
+ * font style: ASCII in arrays, other code points in a sparse map. A code point followed by
+ * joiners, selectors or marks is measured with them as one cluster, and not cached.
+ * <p>
+ * The paint must be set up for the font style passed in, and the cache cleared when the
+ * paint configuration changes.
+ */
+final class AdvanceCache {
+	private static final int ASCII = 128;
+	private static final char TAB_CHAR = '\t';
+	
+	private final Paint paint;
+	private final float[][] asciiAdvances = new float[4][ASCII];
+	private final SparseIntArray advances = new SparseIntArray();
+	private final char[] chars = new char[2];
+	private float tabAdvance;
+	
+	AdvanceCache(@NonNull Paint paint) {
+		this.paint = paint;
+		clear();
+	}
+	
+	void clear() {
+		for (float[] table : asciiAdvances) {
+			Arrays.fill(table, Float.NaN);
+		}
+		advances.clear();
+	}
+	
+	void setTabAdvance(float tabAdvance) {
+		this.tabAdvance = tabAdvance;
+	}
+	
+	/**
+	 * Returns the width of {@code text[start, end)}, tabs being a tab advance wide.
+	 */
+	float measure(@NonNull char[] text, int start, int end, int fontStyle) {
+		float width = 0;
+		int i = start;
+		while (i < end) {
+			char c = text[i];
+			if (c < ASCII && (i + 1 == end || text[i + 1] < ASCII || c == TAB_CHAR)) {
+				width += asciiAdvance(c, fontStyle);
+				i++;
+				continue;
+			}
+			int next = clusterEnd(text, i, end);
+			width += advance(text, i, next, fontStyle);
+			i = next;
+		}
+		return width;
+	}
+	
+	/**
+	 * Stores the advance of each char of {@code text[start, end)} in {@code widths}, a cluster
+	 * on its first char, and returns their sum.
+	 */
+	float getWidths(@NonNull char[] text, int start, int end, @NonNull float[] widths, int fontStyle) {
+		float width = 0;
+		int i = start;
+		while (i < end) {
+			char c = text[i];
+			if (c < ASCII && (i + 1 == end || text[i + 1] < ASCII || c == TAB_CHAR)) {
+				float advance = asciiAdvance(c, fontStyle);
+				widths[i - start] = advance;
+				width += advance;
+				i++;
+				continue;
+			}
+			int next = clusterEnd(text, i, end);
+			float advance = advance(text, i, next, fontStyle);
+			widths[i - start] = advance;
+			for (int j = i + 1; j < next; j++) {
+				widths[j - start] = 0;
+			}
+			width += advance;
+			i = next;
+		}
+		return width;
+	}
+	
+	private float asciiAdvance(char c, int fontStyle) {
+		if (c == TAB_CHAR)
+			return tabAdvance;
+		float[] table = asciiAdvances[fontStyle];
+		float advance = table[c];
+		if (Float.isNaN(advance)) {
+			chars[0] = c;
+			advance = paint.measureText(chars, 0, 1);
+			table[c] = advance;
+		}
+		return advance;
+	}
+	
+	private float advance(char[] text, int start, int end, int fontStyle) {
+		if (end - start == 1 && text[start] < ASCII)
+			return asciiAdvance(text[start], fontStyle);
+		int codePoint = Character.codePointAt(text, start, end);
+		if (Character.charCount(codePoint) != end - start)
+			return paint.measureText(text, start, end - start);
+		int key = codePoint << 2 | fontStyle;
+		int index = advances.indexOfKey(key);
+		if (index >= 0)
+			return Float.intBitsToFloat(advances.valueAt(index));
+		float advance = paint.measureText(text, start, end - start);
+		advances.put(key, Float.floatToRawIntBits(advance));
+		return advance;
+	}
+	
+	/**
+	 * Returns the end of the cluster starting at {@code start}: a code point with the joiners,
+	 * selectors, marks and emoji modifiers after it.
+	 */
+	private static int clusterEnd(char[] text, int start, int end) {
+		int codePoint = Character.codePointAt(text, start, end);
+		int i = start + Character.charCount(codePoint);
+		boolean regionalIndicator = isRegionalIndicator(codePoint);
+		while (i < end) {
+			int next = Character.codePointAt(text, i, end);
+			if (next == Emoji.ZERO_WIDTH_JOINER) {
+				i += Character.charCount(next);
+				if (i < end)
+					i += Character.charCount(Character.codePointAt(text, i, end));
+			} else if (regionalIndicator && isRegionalIndicator(next)) {
+				i += Character.charCount(next);
+				regionalIndicator = false;
+			} else if (isExtending(next)) {
+				i += Character.charCount(next);
+			} else {
+				break;
+			}
+		}
+		return i;
+	}
+	
+	private static boolean isRegionalIndicator(int codePoint) {
+		return 0x1F1E6 <= codePoint && codePoint <= 0x1F1FF;
+	}
+	
+	private static boolean isExtending(int codePoint) {
+		if (0x1F3FB <= codePoint && codePoint <= 0x1F3FF) // emoji modifiers
+			return true;
+		if (0xE0020 <= codePoint && codePoint <= 0xE007F) // tags
+			return true;
+		switch (Character.getType(codePoint)) {
+			case Character.NON_SPACING_MARK:
+			case Character.ENCLOSING_MARK:
+			case Character.COMBINING_SPACING_MARK:
+				return true;
+			default:
+				return 0xFE00 <= codePoint && codePoint <= 0xFE0F; // variation selectors
+		}
+	}
+}
@@ -2,12 +2,13 @@ package com.weg.android.editor;
 
 import static android.graphics.PorterDuff.Mode;
 import static android.os.Build.VERSION.SDK_INT;
+import static android.os.Build.VERSION_CODES.JELLY_BEAN;
 import static android.os.Build.VERSION_CODES.LOLLIPOP;
 import static com.weg.android.editor.TextStyle.BOLD;
 import static com.weg.android.editor.TextStyle.BOLD_ITALIC;
 import static com.weg.android.editor.TextStyle.ITALIC;
 import static com.weg.android.editor.TextStyle.NORMAL;
-import static com.weg.android.editor.syntax.Highlighting.Highlight;
+import static com.weg.android.editor.TextTiles.TILE_LINES;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 import static java.lang.System.currentTimeMillis;
@@ -21,16 +22,24 @@ import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.View;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.weg.android.editor.scheme.ColorSchemeLight;
 import com.weg.android.editor.syntax.Highlighting;
+import com.weg.android.editor.text.SearchResults;
 import com.weg.android.editor.text.TextChangeListener;
+import com.weg.android.editor.text.TextSearch;
+import com.weg.android.editor.text.TextSnapshot;
+import com.weg.android.editor.text.immutable.LineIterator;
+import com.weg.android.editor.util.TemporaryBuffer;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class EditorView extends Component {
 	public EditorView(Context context) {
@@ -54,9 +63,18 @@ public class EditorView extends Component {
 	private static final int CARRIAGE_RETURN = 0x0D;
 	private static final char TAB_CHAR = '\t';
 	private static final char SPACE_CHAR = ' ';
+	private static final long SEARCH_DELAY = 150L;
+	private static final int[] NO_MATCHES = new int[0];
+	
+	private static final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "EditorSearch");
+		thread.setDaemon(true);
+		return thread;
+	});
 	
 	private DisplayMetrics displayMetrics;
 	private Paint painter;
+	private AdvanceCache advances;
 	private Typeface typeface;
 	private String fontFeatures;
 	private int fontSize;
@@ -65,7 +83,6 @@ public class EditorView extends Component {
 	private int fontBottom;
 	private int fontHeight;
 	private int monoAdvance;
-	private int orgTabAdvance;
 	private int tabAdvance;
 	
 	private int tabSize;
@@ -81,6 +98,7 @@ public class EditorView extends Component {
 	private boolean breakpointVisible;
 	
 	private int maxLineLength;
+	private LineLengths lineLengths;
 	private int maxWidth;
 	private int maxHeight;
 	
@@ -90,9 +108,22 @@ public class EditorView extends Component {
 	private ColorScheme colorScheme;
 	private Highlighting highlighting;
 	private int lastHighlightIndex;
-	
-	private Timer caretTimer;
-	private TimerTask caretBlinksTask;
+	private LineLayoutCache lineLayouts;
+	private TextTiles tiles;
+	private LineLayout[] tileLayouts;
+	private boolean textInTiles;
+	private int changeFirstLine;
+	private int changeLastLine;
+	private int changeLineCount;
+	
+	private TextSearch search;
+	private Future<?> searchTask;
+	private SearchCollector searchCollector;
+	private SearchResults searchResults;
+	private final Runnable searchRestart = this::startSearch;
+	
+	private BlinksTask caretBlinksTask;
+	private boolean caretBlinksScheduled;
 	private boolean caretBlinks;
 	private long caretBlinksRate;
 	private boolean caretShowing;
@@ -139,6 +170,7 @@ public class EditorView extends Component {
 		colorScheme = new ColorSchemeLight();
 		displayMetrics = new DisplayMetrics();
 		painter = new Paint(Paint.ANTI_ALIAS_FLAG);
+		advances = new AdvanceCache(painter);
 		typeface = Typeface.MONOSPACE;
 		fontFeatures = "";
 		fontSize = 14;
@@ -149,6 +181,10 @@ public class EditorView extends Component {
 		caretVisible = true;
 		lineNumberVisible = true;
 		caretLineVisible = true;
+		lineLayouts = new LineLayoutCache(256);
+		tiles = new TextTiles();
+		tileLayouts = new LineLayout[TILE_LINES];
+		lineLengths = new LineLengths();
 		
 		int handleColor = colorScheme.getSelectionHandleColor();
 		if (SDK_INT >= LOLLIPOP) {
@@ -167,6 +203,7 @@ public class EditorView extends Component {
 			handleRight.setColorFilter(handleColor, Mode.SRC_OVER);
 		}
 		
+		caretBlinksTask = new BlinksTask();
 		textChange = new TextChange();
 		model = new EditorModel();
 		model.addTextChangeListener(textChange);
@@ -192,18 +229,29 @@ public class EditorView extends Component {
 		fontHeight = fontBottom + fontTop;
 		
 		monoAdvance = (int) painter.measureText(Character.toString(SPACE_CHAR));
-		orgTabAdvance = (int) painter.measureText(Character.toString(TAB_CHAR));
 		tabAdvance = monoAdvance * tabSize;
+		advances.clear();
+		advances.setTabAdvance(tabAdvance);
+		lineLayouts.clear();
+		tiles.clear();
 	}
 	
 	public void configureTab() {
 		tabAdvance = monoAdvance * tabSize;
+		advances.setTabAdvance(tabAdvance);
+		lineLayouts.clear();
+		tiles.clear();
 	}
 	
 	public void setModel(@NonNull EditorModel model) {
 		this.model.removeTextChangeListener(textChange);
 		this.model = model;
 		this.model.addTextChangeListener(textChange);
+		lineLayouts.clear();
+		tiles.clear();
+		searchResults = search != null ? new SearchResults() : null;
+		startSearch();
+		reset();
 	}
 	
 	@NonNull
@@ -243,6 +291,11 @@ public class EditorView extends Component {
 		return model.toString();
 	}
 	
+	@NonNull
+	public TextSnapshot getSnapshot() {
+		return model.getSnapshot();
+	}
+	
 	public int getLineCount() {
 		return model.getLineCount();
 	}
@@ -264,6 +317,22 @@ public class EditorView extends Component {
 		return model.getLineLength(line);
 	}
 	
+	/**
+	 * Returns the first line shown at the current scroll position, whatever part of the view
+	 * the last redraw was clipped to.
+	 */
+	public int getFirstVisibleLine() {
+		return max(0, min(getScrollY() / fontHeight, getLineCount() - 1));
+	}
+	
+	/**
+	 * Returns the last line shown, even partly, at the current scroll position.
+	 */
+	public int getLastVisibleLine() {
+		int bottom = getScrollY() + getHeight() - getPaddingTop() - getPaddingBottom();
+		return max(getFirstVisibleLine(), min((bottom - 1) / fontHeight, getLineCount() - 1));
+	}
+	
 	public void setCaretLineVisible(boolean caretLineVisible) {
 		this.caretLineVisible = caretLineVisible;
 	}
@@ -362,6 +431,8 @@ public class EditorView extends Component {
 	
 	public void setColorScheme(@NonNull ColorScheme colorScheme) {
 		this.colorScheme = colorScheme;
+		lineLayouts.clear();
+		tiles.clear();
 	}
 	
 	@NonNull
@@ -464,10 +535,7 @@ public class EditorView extends Component {
 	public void setCaretBlinks(boolean caretBlinks) {
 		if (this.caretBlinks == caretBlinks) return;
 		this.caretBlinks = caretBlinks;
-		if (this.caretBlinks)
-			scheduleCaretBlinks();
-		else
-			cancelCaretBlinks();
+		scheduleCaretBlinks();
 	}
 	
 	public boolean isCaretBlinks() {
@@ -585,11 +653,15 @@ public class EditorView extends Component {
 	}
 	
 	private void indexLayout() {
-		maxWidth = 0;
-		maxLineLength = 0;
+		lineLengths.clear();
 		for (int i = 0; i < getLineCount(); i++) {
-			maxLineLength = max(maxLineLength, getLineLength(i));
+			lineLengths.add(getLineLength(i));
 		}
+		updateLayout();
+	}
+	
+	private void updateLayout() {
+		maxLineLength = lineLengths.max();
 		maxWidth = (maxLineLength + 64) * monoAdvance;
 		maxHeight = getLineCount() * fontHeight;
 		sideBarWidth = 0;
@@ -636,15 +708,37 @@ public class EditorView extends Component {
 	@Override
 	protected void onAttachedToWindow() {
 		super.onAttachedToWindow();
-		if (caretBlinks)
-			scheduleCaretBlinks();
+		scheduleCaretBlinks();
 	}
 	
 	@Override
 	protected void onDetachedFromWindow() {
 		super.onDetachedFromWindow();
-		if (caretBlinks)
-			cancelCaretBlinks();
+		cancelCaretBlinks();
+	}
+	
+	@Override
+	protected void onVisibilityChanged(@NonNull View changedView, int visibility) {
+		super.onVisibilityChanged(changedView, visibility);
+		scheduleCaretBlinks();
+	}
+	
+	@Override
+	protected void onWindowVisibilityChanged(int visibility) {
+		super.onWindowVisibilityChanged(visibility);
+		scheduleCaretBlinks();
+	}
+	
+	@Override
+	public void onWindowFocusChanged(boolean hasWindowFocus) {
+		super.onWindowFocusChanged(hasWindowFocus);
+		scheduleCaretBlinks();
+	}
+	
+	@Override
+	protected void onFocusChanged(boolean gainFocus, int direction, @Nullable Rect previouslyFocusedRect) {
+		super.onFocusChanged(gainFocus, direction, previouslyFocusedRect);
+		scheduleCaretBlinks();
 	}
 	
 	@Override
@@ -662,23 +756,61 @@ public class EditorView extends Component {
 		int lastLine = (bounds.bottom - 1) / fontHeight;
 		firstLine = max(0, min(firstLine, getLineCount()));
 		lastLine = max(0, min(lastLine, getLineCount()));
+		if (firstLine >= lastLine) return;
+		
 		int x = sideBarWidth;
 		int y = (firstLine + 1) * fontHeight;
-		for (int line = firstLine; line < lastLine; line++) {
-			int start = getLineStart(line);
-			int length = getLineLength(line);
-			redrawLine(canvas, bounds, line, start, length, x, y);
+		textInTiles = tiles.isAvailable(canvas);
+		LineIterator lines = model.lines(firstLine);
+		for (int line = firstLine; line < lastLine && lines.next(); line++) {
+			redrawLine(canvas, bounds, line, lines.getStart(), lines.getLength(), x, y);
 			y += fontHeight;
 		}
+		if (textInTiles)
+			redrawTiles(canvas, firstLine, lastLine, x);
+	}
+	
+	/**
+	 * Draws the text of the lines {@code [firstLine, lastLine)} from their tiles, recording
+	 * the tiles not recorded yet.
+	 */
+	private void redrawTiles(Canvas canvas, int firstLine, int lastLine, int x) {
+		int lineCount = getLineCount();
+		for (int tile = firstLine / TILE_LINES; tile <= (lastLine - 1) / TILE_LINES; tile++) {
+			int tileLine = tile * TILE_LINES;
+			canvas.save();
+			canvas.translate(x, tileLine * fontHeight);
+			if (!tiles.draw(canvas, tile)) {
+				int count = 0;
+				int width = 1;
+				lastHighlightIndex = 0;
+				LineIterator lines = model.lines(tileLine);
+				for (int line = tileLine; line < lineCount && count < TILE_LINES && lines.next(); line++) {
+					LineLayout layout = layoutLine(line, lines.getStart(), lines.getLength());
+					tileLayouts[count++] = layout;
+					width = max(width, layout.width);
+				}
+				Canvas recording = tiles.beginRecording(tile, width, (count + 1) * fontHeight);
+				for (int i = 0; i < count; i++) {
+					drawLineText(recording, tileLayouts[i], 0, (i + 1) * fontHeight, width);
+					tileLayouts[i] = null;
+				}
+				tiles.endRecording(tile);
+				tiles.draw(canvas, tile);
+			}
+			canvas.restore();
+		}
 	}
 	
 	protected void redrawLine(Canvas canvas, Rect bounds, int line, int start, int length, int x, int y) {
-		int end = start + length;
 		if (editable && !selectionMode && caretLineVisible && caretLine == line && colorScheme.getCaretLineColor() != 0) {
 			painter.setColor(colorScheme.getCaretLineColor());
 			canvas.drawRect(x, y - fontTop, bounds.right, y + fontBottom, painter);
 		}
 		
+		if (searchResults != null && colorScheme.getSearchResultColor() != 0)
+			drawSearchResults(canvas, start, start + length, x, y);
+		
 		if (lineNumberVisible && colorScheme.getLineNumberColor() != 0) {
 			if (line == caretLine && colorScheme.getCaretLineNumberColor() != 0)
 				painter.setColor(colorScheme.getCaretLineNumberColor());
@@ -687,59 +819,107 @@ public class EditorView extends Component {
 			canvas.drawText(Integer.toString(line + 1), monoAdvance, y, painter);
 		}
 		
+		if (!textInTiles)
+			drawLineText(canvas, layoutLine(line, start, length), x, y, bounds.right);
+	}
+	
+	private void drawSearchResults(Canvas canvas, int start, int end, int x, int y) {
+		painter.setColor(colorScheme.getSearchResultColor());
+		int measured = start;
+		for (int i = searchResults.find(start); i < searchResults.size() && searchResults.getStart(i) < end; i++) {
+			int from = max(searchResults.getStart(i), start);
+			int to = min(searchResults.getEnd(i), end);
+			x += measureText(measured, from);
+			int right = x + measureText(from, to);
+			canvas.drawRect(x, y - fontTop, right, y + fontBottom, painter);
+			x = right;
+			measured = to;
+		}
+	}
+	
+	private void drawLineText(Canvas canvas, LineLayout layout, int x, int y, int right) {
+		for (int i = 0; i < layout.runCount; i++) {
+			int runX = x + layout.runXs[i];
+			if (runX >= right) break;
+			int runStart = layout.runStarts[i];
+			painter.setColor(layout.runColors[i]);
+			applyPainter(layout.runFontStyles[i]);
+			canvas.drawText(layout.text, runStart, layout.runEnds[i] - runStart, runX, y, painter);
+			resetPainter();
+		}
+	}
+	
+	/**
+	 * Returns the cached layout of a line, or shapes it again with the current highlighting.
+	 */
+	private LineLayout layoutLine(int line, int start, int length) {
+		LineLayout layout = lineLayouts.get(line, start, length);
+		if (layout != null) return layout;
+		layout = lineLayouts.obtain();
+		layout.reset(start, length);
+		int end = start + length;
+		model.getChars(start, end, layout.text, 0);
+		
 		int textColor = colorScheme.getForegroundColor();
 		int textOffset = start;
+		int x = 0;
 		if (highlighting != null) {
-			int findIndex = -1;
-			for (int i = start; i < end; i++) {
-				findIndex = findHighlight(lastHighlightIndex, i);
-				if (findIndex >= 0) break;
-			}
+			int findIndex = highlighting.find(lastHighlightIndex, start);
+			if (findIndex < 0)
+				findIndex = -findIndex - 1;
 			
-			if (findIndex >= 0) {
-				for (int i = findIndex; i < highlighting.highlights.length; i++) {
-					Highlight highlight = highlighting.highlights[i];
-					if (highlight.startIndex > end) break;
-					int spanStart = max(textOffset, highlight.startIndex);
-					int spanEnd = min(end, highlight.stopIndex);
-					
-					if (spanStart > textOffset) {
-						resetPainter();
-						painter.setColor(textColor);
-						if (textColor == 0)
-							x += measureText(textOffset, spanStart);
-						else
-							x += drawText(canvas, textOffset, spanStart, x, y);
-					}
-					
-					TextStyle style = colorScheme.getStyle(highlight.type);
-					if (style != null) {
-						applyPainter(style);
-						int foregroundColor = style.foregroundColor;
-						if (foregroundColor != 0)
-							painter.setColor(foregroundColor);
-						else
-							painter.setColor(textColor);
-					}
-					if (painter.getColor() == 0)
-						x += measureText(spanStart, spanEnd);
-					else
-						x += drawText(canvas, spanStart, spanEnd, x, y);
-					textOffset = spanEnd;
-					lastHighlightIndex = i;
-					resetPainter();
+			for (int i = findIndex; i < highlighting.size(); i++) {
+				int highlightStart = highlighting.getStart(i);
+				if (highlightStart > end) break;
+				int spanStart = max(textOffset, highlightStart);
+				int spanEnd = min(end, highlighting.getEnd(i));
+				if (spanEnd <= spanStart) continue;
+				
+				if (spanStart > textOffset)
+					x = layoutRuns(layout, textOffset - start, spanStart - start, x, textColor, NORMAL);
+				
+				int color = textColor;
+				int fontStyle = NORMAL;
+				TextStyle style = colorScheme.getStyle(highlighting.getType(i));
+				if (style != null) {
+					if (style.foregroundColor != 0)
+						color = style.foregroundColor;
+					fontStyle = style.fontStyle;
 				}
+				x = layoutRuns(layout, spanStart - start, spanEnd - start, x, color, fontStyle);
+				textOffset = spanEnd;
+				lastHighlightIndex = i;
 			}
 		}
 		
-		if (textOffset < end) {
-			if (colorScheme.getForegroundColor() != 0) {
-				painter.setColor(colorScheme.getForegroundColor());
-				x += drawText(canvas, textOffset, end, x, y);
-			} else
-				x += measureText(textOffset, end);
+		if (textOffset < end)
+			x = layoutRuns(layout, textOffset - start, length, x, textColor, NORMAL);
+		layout.width = x;
+		lineLayouts.put(line, layout);
+		return layout;
+	}
+	
+	/**
+	 * Adds the runs of {@code layout.text[from, to)} split at tabs, and returns the x after them.
+	 * Text of color 0 is measured but not drawn.
+	 */
+	private int layoutRuns(LineLayout layout, int from, int to, int x, int color, int fontStyle) {
+		char[] text = layout.text;
+		applyPainter(fontStyle);
+		for (int i = from; i < to; i++) {
+			if (text[i] != TAB_CHAR) continue;
+			if (i > from && color != 0)
+				layout.addRun(from, i, x, color, fontStyle);
+			x += (int) advances.measure(text, from, i, fontStyle) + tabAdvance;
+			from = i + 1;
 		}
-		
+		if (from < to) {
+			if (color != 0)
+				layout.addRun(from, to, x, color, fontStyle);
+			x += (int) advances.measure(text, from, to, fontStyle);
+		}
+		resetPainter();
+		return x;
 	}
 	
 	private void resetPainter() {
@@ -747,8 +927,8 @@ public class EditorView extends Component {
 		painter.setTextSkewX(0);
 	}
 	
-	private void applyPainter(TextStyle style) {
-		switch (style.fontStyle) {
+	private void applyPainter(int fontStyle) {
+		switch (fontStyle) {
 			case NORMAL:
 			default:
 				break;
@@ -766,114 +946,71 @@ public class EditorView extends Component {
 	}
 	
 	public int measureText(int start, int end) {
-		int w = model.measureText(start, end, painter);
-		for (int i = start; i < end; i++) {
-			if (model.charAt(i) == TAB_CHAR) {
-				w -= orgTabAdvance;
-				w += tabAdvance;
-			}
-		}
+		char[] text = TemporaryBuffer.obtain(end - start);
+		model.getChars(start, end, text, 0);
+		int w = (int) advances.measure(text, 0, end - start, NORMAL);
+		TemporaryBuffer.recycle(text);
 		return w;
 	}
 	
 	public int getTextWidths(int start, int end, float[] widths) {
-		int w = model.getTextWidths(start, end, widths, painter);
-		for (int i = start; i < end; i++) {
-			if (model.charAt(i) == TAB_CHAR) {
-				w -= orgTabAdvance;
-				w += tabAdvance;
-				widths[i - start] = tabAdvance;
-			}
-		}
+		char[] text = TemporaryBuffer.obtain(end - start);
+		model.getChars(start, end, text, 0);
+		int w = (int) advances.getWidths(text, 0, end - start, widths, NORMAL);
+		TemporaryBuffer.recycle(text);
 		return w;
 	}
 	
-	private int drawText(Canvas canvas, int start, int end, int x, int y) {
-		int offset = 0;
-		int from = start;
-		for (int i = start; i < end; i++) {
-			if (model.charAt(i) == TAB_CHAR) {
-				model.drawText(canvas, from, i, x, y, painter);
-				int w = measureText(from, i + 1);
-				offset += w;
-				x += w;
-				from = i + 1;
-			}
-		}
-		if (from < end) {
-			model.drawText(canvas, from, end, x, y, painter);
-			offset += measureText(from, end);
-		}
-		return offset;
-	}
-	
-	private int drawText(Canvas canvas, int start, int end, int x, int y, int backgroundColor, int foregroundColor) {
-		int offset = 0;
-		int from = start;
-		for (int i = start; i < end; i++) {
-			if (model.charAt(i) == TAB_CHAR) {
-				int w = measureText(from, i + 1);
-				if (backgroundColor != 0) {
-					painter.setColor(backgroundColor);
-					canvas.drawRect(x, y - fontTop, x + w, y + fontBottom, painter);
-				}
-				painter.setColor(foregroundColor);
-				model.drawText(canvas, from, i, x, y, painter);
-				
-				offset += w;
-				x += w;
-				from = i + 1;
-			}
-		}
-		if (from < end) {
-			int w = measureText(from, end);
-			if (backgroundColor != 0) {
-				painter.setColor(backgroundColor);
-				canvas.drawRect(x, y - fontTop, x + w, y + fontBottom, painter);
-			}
-			painter.setColor(foregroundColor);
-			model.drawText(canvas, from, end, x, y, painter);
-			offset += w;
-		}
-		return offset;
-	}
-	
+	/**
+	 * Starts blinking the caret if it blinks and the view is shown and focused.
+	 */
 	private void scheduleCaretBlinks() {
 		cancelCaretBlinks();
-		if (caretTimer == null)
-			caretTimer = new Timer("Caret", true);
-		if (caretBlinksTask == null)
-			caretBlinksTask = new BlinksTask();
-		caretTimer.scheduleAtFixedRate(caretBlinksTask, 100L, caretBlinksRate);
+		if (!caretBlinks || !isShown() || !hasWindowFocus() || !isFocused()) return;
+		caretBlinksScheduled = true;
+		postCaretBlinks(100L);
 	}
 	
 	private void cancelCaretBlinks() {
-		if (caretBlinksTask != null) {
-			caretBlinksTask.cancel();
-			caretBlinksTask = null;
+		if (caretBlinksScheduled) {
+			caretBlinksScheduled = false;
+			removeCallbacks(caretBlinksTask);
 		}
-		if (caretTimer != null) {
-			caretTimer.cancel();
-			caretTimer = null;
+		if (caretShowing) {
+			caretShowing = false;
+			invalidateCaret();
 		}
-		caretShowing = false;
 	}
 	
-	private class BlinksTask extends TimerTask {
+	private void postCaretBlinks(long delay) {
+		if (SDK_INT >= JELLY_BEAN)
+			postOnAnimationDelayed(caretBlinksTask, delay);
+		else
+			postDelayed(caretBlinksTask, delay);
+	}
+	
+	/**
+	 * Toggles the caret on the main thread, posted on the animation frame after each blink
+	 * interval so it is drawn with the next vsync.
+	 */
+	private class BlinksTask implements Runnable {
 		
 		@Override
 		public void run() {
-			if (!caretBlinks) return;
+			if (!caretBlinksScheduled) return;
 			if (currentTimeMillis() - lastCaretModifiedTime < 3000)
 				caretShowing = true;
 			else
 				caretShowing = !caretShowing;
-			postInvalidate();
+			invalidateCaret();
+			postCaretBlinks(caretBlinksRate);
 		}
 	}
 	
 	public void setHighlighting(@Nullable Highlighting highlighting) {
 		this.highlighting = highlighting;
+		lineLayouts.clear();
+		tiles.clear();
 		invalidate();
 		Log.d(TAG, "setHighlighting: ");
 	}
@@ -883,45 +1020,223 @@ public class EditorView extends Component {
 		return highlighting;
 	}
 	
-	private int findHighlight(int fromIndex, int offset) {
-		int low = fromIndex;
-		int high = highlighting.highlights.length - 1;
+	/**
+	 * Applies an update of {@code [start, end)} to the current highlighting, see
+	 * {@link Highlighting#splice(int, int, Highlighting)}.
+	 */
+	public void spliceHighlighting(int start, int end, @NonNull Highlighting spans) {
+		if (highlighting == null)
+			throw new IllegalStateException("no highlighting to update");
+		highlighting.splice(start, end, spans);
+		int firstLine = getLineAtPosition(start);
+		int lastLine = getLineAtPosition(min(end, getCharCount()));
+		lineLayouts.invalidate(firstLine, lastLine);
+		tiles.invalidate(firstLine, lastLine);
+		invalidateLines(firstLine, lastLine, sideBarWidth, getScrollX() + getWidth());
+	}
+	
+	/**
+	 * Searches the text in the background, the matches being painted as they are found and
+	 * searched again after edits until the search is changed.
+	 *
+	 * @param search the search to run, or null to stop searching.
+	 */
+	public void search(@Nullable TextSearch search) {
+		this.search = search;
+		if (searchResults != null && searchResults.size() > 0)
+			invalidate();
+		searchResults = search != null ? new SearchResults() : null;
+		startSearch();
+	}
+	
+	/**
+	 * Returns the matches of the current search, or null if there is none. After an edit they
+	 * are the previous matches moved along, until the search has run again.
+	 */
+	@Nullable
+	public SearchResults getSearchResults() {
+		return searchResults;
+	}
+	
+	/**
+	 * Runs the search again once the edits pause for {@link #SEARCH_DELAY}, so that typing does
+	 * not search the whole text on every keystroke.
+	 */
+	private void scheduleSearch() {
+		cancelSearch();
+		if (search != null)
+			postDelayed(searchRestart, SEARCH_DELAY);
+	}
+	
+	private void cancelSearch() {
+		removeCallbacks(searchRestart);
+		if (searchTask != null)
+			searchTask.cancel(true);
+		searchTask = null;
+		searchCollector = null;
+	}
+	
+	/**
+	 * Cancels the running search, if any, and runs the current one again over the current text.
+	 * The previous matches stay painted until the new ones replace them.
+	 */
+	private void startSearch() {
+		cancelSearch();
+		if (search == null) return;
+		searchCollector = new SearchCollector();
+		searchTask = model.search(search, searchExecutor, searchCollector);
+	}
+	
+	/**
+	 * Replaces the matches starting in {@code [start, end)} by new ones, repainting only the
+	 * matches that come or go. A search run again mostly finds the same ones.
+	 */
+	private void spliceSearchResults(int start, int end, int[] matches, int count) {
+		int first = searchResults.findStart(start);
+		int last = searchResults.findStart(end);
+		int i = first;
+		int j = 0;
+		while (i < last || j < count) {
+			int oldStart = i < last ? searchResults.getStart(i) : Integer.MAX_VALUE;
+			int newStart = j < count ? matches[j * 2] : Integer.MAX_VALUE;
+			if (oldStart == newStart && searchResults.getEnd(i) == matches[j * 2 + 1]) {
+				i++;
+				j++;
+			} else if (oldStart <= newStart) {
+				invalidateRange(oldStart, searchResults.getEnd(i));
+				i++;
+			} else {
+				invalidateRange(newStart, matches[j * 2 + 1]);
+				j++;
+			}
+		}
+		searchResults.replace(first, last, matches, count);
+	}
+	
+	private void invalidateRange(int start, int end) {
+		invalidateLines(getLineAtPosition(start), getLineAtPosition(end), sideBarWidth, getScrollX() + getWidth());
+	}
+	
+	/**
+	 * Hands the matches of a search over to the UI thread, dropped there once the text has
+	 * changed or a newer search has started.
+	 */
+	private class SearchCollector implements TextSearch.Callback {
+		/**
+		 * The end of the text searched so far, the matches before it are the new ones. Only
+		 * used on the UI thread.
+		 */
+		private int searched;
 		
-		while (low <= high) {
-			int mid = (low + high) >>> 1;
-			Highlight midVal = highlighting.highlights[mid];
-			
-			if (midVal.stopIndex < offset)
-				low = mid + 1;
-			else if (midVal.startIndex > offset)
-				high = mid - 1;
-			else
-				return mid; // key found
+		@Override
+		public void onMatches(@NonNull int[] offsets, final int count) {
+			final int[] matches = Arrays.copyOf(offsets, count * 2);
+			post(() -> {
+				if (searchCollector != this) return;
+				int end = matches[count * 2 - 1];
+				spliceSearchResults(searched, end, matches, count);
+				searched = end;
+			});
+		}
+		
+		@Override
+		public void onFinished(int matchCount) {
+			post(() -> {
+				if (searchCollector != this) return;
+				spliceSearchResults(searched, Integer.MAX_VALUE, NO_MATCHES, 0);
+				searchCollector = null;
+				searchTask = null;
+			});
 		}
-		return -(low + 1);  // key not found.
 	}
 	
 	protected void onTextSet() {
+		lineLayouts.clear();
+		tiles.clear();
+		searchResults = search != null ? new SearchResults() : null;
+		startSearch();
 		reset();
 	}
 	
 	protected void onTextChanging(int start, int end, @Nullable CharSequence newText) {
-	
+		changeFirstLine = getLineAtPosition(start);
+		changeLastLine = getLineAtPosition(end);
+		changeLineCount = getLineCount();
+		for (int line = changeFirstLine; line <= changeLastLine; line++) {
+			lineLengths.remove(getLineLength(line));
+		}
 	}
 	
 	protected void onTextInserted(int index, @NonNull CharSequence text) {
-		indexLayout();
-		invalidate();
+		if (highlighting != null)
+			highlighting.textInserted(index, text.length());
+		if (searchResults != null)
+			searchResults.textInserted(index, text.length());
+		textChanged(getLineAtPosition(index + text.length()), text.length());
 	}
 	
 	protected void onTextDeleted(int start, int end) {
-		indexLayout();
-		invalidate();
+		if (highlighting != null)
+			highlighting.textDeleted(start, end);
+		if (searchResults != null)
+			searchResults.textDeleted(start, end);
+		textChanged(getLineAtPosition(start), start - end);
 	}
 	
 	protected void onTextReplaced(int start, int end, @NonNull CharSequence newText) {
-		indexLayout();
-		invalidate();
+		if (highlighting != null) {
+			highlighting.textDeleted(start, end);
+			highlighting.textInserted(start, newText.length());
+		}
+		if (searchResults != null) {
+			searchResults.textDeleted(start, end);
+			searchResults.textInserted(start, newText.length());
+		}
+		textChanged(getLineAtPosition(start + newText.length()), newText.length() - (end - start));
+	}
+	
+	/**
+	 * Updates the layout for the lines changed since {@link #onTextChanging}, now ending at
+	 * {@code lastLine}, and the text after them moved by {@code delta} chars. The search runs
+	 * again over the new text once the edits pause.
+	 */
+	private void textChanged(int lastLine, int delta) {
+		scheduleSearch();
+		lineLayouts.textChanged(changeFirstLine, changeLastLine, lastLine, delta);
+		tiles.textChanged(changeFirstLine, changeLastLine, lastLine);
+		for (int line = changeFirstLine; line <= lastLine; line++) {
+			lineLengths.add(getLineLength(line));
+		}
+		int oldSideBarWidth = sideBarWidth;
+		updateLayout();
+		
+		int right = getScrollX() + getWidth();
+		if (sideBarWidth != oldSideBarWidth) {
+			invalidate();
+		} else if (lastLine == changeLastLine) {
+			invalidateLines(changeFirstLine, lastLine, sideBarWidth, right);
+		} else {
+			// the lines below move, and the gutter gains or loses line numbers at the end
+			int lineCount = getLineCount();
+			invalidateLines(changeFirstLine, max(lineCount, changeLineCount), sideBarWidth, right);
+			invalidateLines(min(lineCount, changeLineCount) - 1, max(lineCount, changeLineCount), 0, sideBarWidth);
+		}
+	}
+	
+	/**
+	 * Invalidates the lines {@code [firstLine, lastLine]} between {@code left} and {@code right}
+	 * in content coordinates, with a line of margin for the glyphs drawn past the line bottom.
+	 */
+	private void invalidateLines(int firstLine, int lastLine, int left, int right) {
+		int top = getPaddingTop() + firstLine * fontHeight;
+		int bottom = getPaddingTop() + (lastLine + 2) * fontHeight;
+		invalidate(getPaddingLeft() + left, top, getPaddingLeft() + right, bottom);
+	}
+	
+	private void invalidateCaret() {
+		int left = getPaddingLeft() + caretX - monoAdvance;
+		int top = getPaddingTop() + caretLine * fontHeight;
+		invalidate(left, top, left + monoAdvance * 2, top + fontHeight * 2);
 	}
 	
 	private class TextChange implements TextChangeListener {
@@ -0,0 +1,51 @@
+package com.weg.android.editor;
+
+import java.util.Arrays;
+
+/**
+ * The shaped text of a line: a copy of its chars and the runs to draw, each with its
+ * x position and paint style, so an unchanged line is drawn again without measuring it.
+ */
+final class LineLayout {
+	int start;
+	int length;
+	char[] text = new char[64];
+	int width;
+	long lastUsed;
+	
+	int runCount;
+	int[] runStarts = new int[8];
+	int[] runEnds = new int[8];
+	int[] runXs = new int[8];
+	int[] runColors = new int[8];
+	int[] runFontStyles = new int[8];
+	
+	void reset(int start, int length) {
+		this.start = start;
+		this.length = length;
+		if (text.length < length)
+			text = new char[Math.max(length, text.length + (text.length >> 1))];
+		width = 0;
+		runCount = 0;
+	}
+	
+	/**
+	 * Adds a run of {@code text[start, end)} drawn at {@code x} relative to the line start.
+	 */
+	void addRun(int start, int end, int x, int color, int fontStyle) {
+		if (runCount == runStarts.length) {
+			int capacity = runCount + (runCount >> 1);
+			runStarts = Arrays.copyOf(runStarts, capacity);
+			runEnds = Arrays.copyOf(runEnds, capacity);
+			runXs = Arrays.copyOf(runXs, capacity);
+			runColors = Arrays.copyOf(runColors, capacity);
+			runFontStyles = Arrays.copyOf(runFontStyles, capacity);
+		}
+		runStarts[runCount] = start;
+		runEnds[runCount] = end;
+		runXs[runCount] = x;
+		runColors[runCount] = color;
+		runFontStyles[runCount] = fontStyle;
+		runCount++;
+	}
+}
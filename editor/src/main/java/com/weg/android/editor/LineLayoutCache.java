@@ -0,0 +1,135 @@
+package com.weg.android.editor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * The layouts of recently drawn lines by line index, the least recently used one is dropped
+ * when it is full. Edits move the layouts of the lines after them instead of dropping them.
+ */
+final class LineLayoutCache {
+	private final int capacity;
+	private int size;
+	private final int[] lines;
+	private final LineLayout[] layouts;
+	private LineLayout recycled;
+	private long clock;
+	
+	LineLayoutCache(int capacity) {
+		this.capacity = capacity;
+		lines = new int[capacity + 1];
+		layouts = new LineLayout[capacity + 1];
+	}
+	
+	/**
+	 * Returns the layout of {@code line} if it was made for the same start and length.
+	 */
+	@Nullable
+	LineLayout get(int line, int start, int length) {
+		int index = indexOf(line);
+		if (index < 0) return null;
+		LineLayout layout = layouts[index];
+		if (layout.start != start || layout.length != length) {
+			remove(index, index + 1);
+			return null;
+		}
+		layout.lastUsed = ++clock;
+		return layout;
+	}
+	
+	/**
+	 * Returns an unused layout to fill and {@link #put(int, LineLayout)}.
+	 */
+	@NonNull
+	LineLayout obtain() {
+		LineLayout layout = recycled;
+		if (layout == null)
+			return new LineLayout();
+		recycled = null;
+		return layout;
+	}
+	
+	void put(int line, @NonNull LineLayout layout) {
+		layout.lastUsed = ++clock;
+		int index = indexOf(line);
+		if (index >= 0) {
+			recycled = layouts[index];
+			layouts[index] = layout;
+			return;
+		}
+		index = -index - 1;
+		System.arraycopy(lines, index, lines, index + 1, size - index);
+		System.arraycopy(layouts, index, layouts, index + 1, size - index);
+		lines[index] = line;
+		layouts[index] = layout;
+		size++;
+		if (size > capacity) {
+			int oldest = 0;
+			for (int i = 1; i < size; i++) {
+				if (layouts[i].lastUsed < layouts[oldest].lastUsed)
+					oldest = i;
+			}
+			remove(oldest, oldest + 1);
+		}
+	}
+	
+	/**
+	 * Drops the layouts of the lines {@code [firstLine, lastLine]}.
+	 */
+	void invalidate(int firstLine, int lastLine) {
+		int from = indexOf(firstLine);
+		if (from < 0) from = -from - 1;
+		int to = indexOf(lastLine);
+		to = to < 0 ? -to - 1 : to + 1;
+		if (from < to)
+			remove(from, to);
+	}
+	
+	/**
+	 * Drops the layouts of the lines {@code [firstLine, oldLastLine]} replaced by an edit, and
+	 * moves the ones after them to {@code newLastLine} and by {@code delta} chars.
+	 */
+	void textChanged(int firstLine, int oldLastLine, int newLastLine, int delta) {
+		invalidate(firstLine, oldLastLine);
+		int lineDelta = newLastLine - oldLastLine;
+		if (lineDelta == 0 && delta == 0) return;
+		int index = indexOf(oldLastLine + 1);
+		if (index < 0) index = -index - 1;
+		for (int i = index; i < size; i++) {
+			lines[i] += lineDelta;
+			layouts[i].start += delta;
+		}
+	}
+	
+	void clear() {
+		for (int i = 0; i < size; i++) {
+			layouts[i] = null;
+		}
+		size = 0;
+	}
+	
+	private void remove(int from, int to) {
+		recycled = layouts[to - 1];
+		System.arraycopy(lines, to, lines, from, size - to);
+		System.arraycopy(layouts, to, layouts, from, size - to);
+		for (int i = size - (to - from); i < size; i++) {
+			layouts[i] = null;
+		}
+		size -= to - from;
+	}
+	
+	private int indexOf(int line) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (lines[mid] < line)
+				low = mid + 1;
+			else if (lines[mid] > line)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -(low + 1);
+	}
+}
@@ -0,0 +1,38 @@
+package com.weg.android.editor;
+
+import android.util.SparseIntArray;
+
+/**
+ * The number of lines of each length, so the longest line is known without visiting all
+ * lines after an edit.
+ */
+final class LineLengths {
+	private final SparseIntArray counts = new SparseIntArray();
+	
+	void add(int length) {
+		int index = counts.indexOfKey(length);
+		if (index >= 0)
+			counts.setValueAt(index, counts.valueAt(index) + 1);
+		else
+			counts.put(length, 1);
+	}
+	
+	void remove(int length) {
+		int index = counts.indexOfKey(length);
+		if (index < 0) return;
+		int count = counts.valueAt(index) - 1;
+		if (count == 0)
+			counts.removeAt(index);
+		else
+			counts.setValueAt(index, count);
+	}
+	
+	int max() {
+		int size = counts.size();
+		return size == 0 ? 0 : counts.keyAt(size - 1);
+	}
+	
+	void clear() {
+		counts.clear();
+	}
+}
@@ -0,0 +1,174 @@
+package com.weg.android.editor;
+
+import static android.os.Build.VERSION.SDK_INT;
+import static android.os.Build.VERSION_CODES.M;
+import static android.os.Build.VERSION_CODES.Q;
+
+import android.graphics.Canvas;
+import android.graphics.Picture;
+import android.graphics.RenderNode;
+import android.util.SparseArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+/**
+ * The text of blocks of {@link #TILE_LINES} lines recorded as display lists, a
+ * {@link RenderNode} from Android 10 and a {@link Picture} from Android 6, so scrolling draws
+ * recorded blocks again instead of every text run. Older versions draw the text directly.
+ */
+final class TextTiles {
+	static final int TILE_LINES = 32;
+	private static final int CAPACITY = 12;
+	
+	private final SparseArray<Tile> tiles = new SparseArray<>();
+	private long clock;
+	
+	/**
+	 * Returns {@code true} if tiles can be recorded for and drawn on {@code canvas}.
+	 */
+	boolean isAvailable(@NonNull Canvas canvas) {
+		if (SDK_INT >= Q)
+			return canvas.isHardwareAccelerated();
+		return SDK_INT >= M;
+	}
+	
+	/**
+	 * Draws the recorded tile at its origin, returns {@code false} if it is not recorded.
+	 */
+	boolean draw(@NonNull Canvas canvas, int tile) {
+		Tile recorded = tiles.get(tile);
+		if (recorded == null) return false;
+		recorded.lastUsed = ++clock;
+		recorded.draw(canvas);
+		return true;
+	}
+	
+	/**
+	 * Starts recording a tile, to end with {@link #endRecording(int)}.
+	 */
+	@NonNull
+	Canvas beginRecording(int tile, int width, int height) {
+		Tile recorded = tiles.get(tile);
+		if (recorded == null) {
+			recorded = SDK_INT >= Q ? new RenderNodeTile() : new PictureTile();
+			tiles.put(tile, recorded);
+		}
+		recorded.lastUsed = ++clock;
+		return recorded.beginRecording(width, height);
+	}
+	
+	void endRecording(int tile) {
+		tiles.get(tile).endRecording();
+		if (tiles.size() > CAPACITY) {
+			int oldest = 0;
+			for (int i = 1; i < tiles.size(); i++) {
+				if (tiles.valueAt(i).lastUsed < tiles.valueAt(oldest).lastUsed)
+					oldest = i;
+			}
+			tiles.valueAt(oldest).discard();
+			tiles.removeAt(oldest);
+		}
+	}
+	
+	/**
+	 * Drops the tiles of the lines {@code [firstLine, lastLine]}.
+	 */
+	void invalidate(int firstLine, int lastLine) {
+		int first = firstLine / TILE_LINES;
+		int last = lastLine / TILE_LINES;
+		for (int i = tiles.size() - 1; i >= 0; i--) {
+			int tile = tiles.keyAt(i);
+			if (tile >= first && tile <= last) {
+				tiles.valueAt(i).discard();
+				tiles.removeAt(i);
+			}
+		}
+	}
+	
+	/**
+	 * Drops the tiles of the lines after an edit of the lines {@code [firstLine, oldLastLine]},
+	 * now {@code [firstLine, newLastLine]}; all the following ones if the line count changed.
+	 */
+	void textChanged(int firstLine, int oldLastLine, int newLastLine) {
+		invalidate(firstLine, oldLastLine == newLastLine ? newLastLine : Integer.MAX_VALUE);
+	}
+	
+	void clear() {
+		for (int i = 0; i < tiles.size(); i++) {
+			tiles.valueAt(i).discard();
+		}
+		tiles.clear();
+	}
+	
+	private abstract static class Tile {
+		long lastUsed;
+		
+		@NonNull
+		abstract Canvas beginRecording(int width, int height);
+		
+		abstract void endRecording();
+		
+		abstract void draw(@NonNull Canvas canvas);
+		
+		void discard() {
+		
+		}
+	}
+	
+	@RequiresApi(Q)
+	private static final class RenderNodeTile extends Tile {
+		private final RenderNode node = new RenderNode("TextTile");
+		
+		@NonNull
+		@Override
+		Canvas beginRecording(int width, int height) {
+			node.setPosition(0, 0, width, height);
+			return node.beginRecording(width, height);
+		}
+		
+		@Override
+		void endRecording() {
+			node.endRecording();
+		}
+		
+		@Override
+		void draw(@NonNull Canvas canvas) {
+			canvas.drawRenderNode(node);
+		}
+		
+		@Override
+		void discard() {
+			node.discardDisplayList();
+		}
+	}
+	
+	@RequiresApi(M)
+	private static final class PictureTile extends Tile {
+		@Nullable
+		private Picture picture;
+		@Nullable
+		private Picture recording;
+		
+		@NonNull
+		@Override
+		Canvas beginRecording(int width, int height) {
+			recording = new Picture();
+			return recording.beginRecording(width, height);
+		}
+		
+		@Override
+		void endRecording() {
+			recording.endRecording();
+			picture = recording;
+			recording = null;
+		}
+		
+		@Override
+		void draw(@NonNull Canvas canvas) {
+			if (picture != null)
+				canvas.drawPicture(picture);
+		}
+	}
+}
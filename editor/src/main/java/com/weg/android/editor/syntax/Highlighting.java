@@ -1,8 +1,6 @@
 package com.weg.android.editor.syntax;
 
-import static java.lang.Integer.compare;
 import static java.lang.Math.max;
-import static java.util.Collections.sort;
 
 import android.os.Parcel;
 import android.os.Parcelable;
@@ -10,36 +8,354 @@ import android.os.Parcelable;
 import androidx.annotation.NonNull;
 
 import com.weg.android.editor.TokenType;
-import com.weg.android.editor.util.GapList;
 
 import java.util.Arrays;
 
+/**
+ * Highlighted spans sorted by start then end, stored as columns: {@code starts}, {@code ends},
+ * and {@code typeIds} indexing a small table of the token types in use. Spans do not overlap.
+ * The editor moves them along with its edits until the next highlighting arrives.
+ */
 public class Highlighting implements Parcelable {
 	
 	public static class Builder {
-		private final GapList<Highlight> lists;
+		private TokenType[] types = new TokenType[16];
+		private int typeCount;
+		private int[] starts;
+		private int[] ends;
+		private short[] typeIds;
+		private int size;
+		private boolean sorted = true;
+		private boolean rangeAllowed;
+		private int baseVersion = -1;
+		private int rangeStart;
+		private int rangeEnd = -1;
 		
 		public Builder(int initCapacity) {
-			lists = new GapList<>(max(32, initCapacity));
+			int capacity = max(32, initCapacity);
+			starts = new int[capacity];
+			ends = new int[capacity];
+			typeIds = new short[capacity];
 		}
 		
 		public void highlight(@NonNull TokenType type, int start, int end) {
-			lists.add(new Highlight(type, start, end));
+			if (size == starts.length) {
+				int capacity = size + (size >> 1);
+				starts = Arrays.copyOf(starts, capacity);
+				ends = Arrays.copyOf(ends, capacity);
+				typeIds = Arrays.copyOf(typeIds, capacity);
+			}
+			if (sorted && size > 0) {
+				int lastStart = starts[size - 1];
+				sorted = lastStart < start || lastStart == start && ends[size - 1] <= end;
+			}
+			starts[size] = start;
+			ends[size] = end;
+			typeIds[size] = typeId(type);
+			size++;
+		}
+		
+		private short typeId(TokenType type) {
+			int id = indexOf(types, typeCount, type);
+			if (id >= 0) return (short) id;
+			if (typeCount == types.length)
+				types = Arrays.copyOf(types, typeCount * 2);
+			types[typeCount] = type;
+			return (short) typeCount++;
+		}
+		
+		/**
+		 * Allows the spans to be an update of a range only, see {@link #setRange(int, int, int)}.
+		 */
+		public void setRangeAllowed(boolean rangeAllowed) {
+			this.rangeAllowed = rangeAllowed;
+		}
+		
+		public boolean isRangeAllowed() {
+			return rangeAllowed;
+		}
+		
+		/**
+		 * Marks the spans as an update of {@code [start, end)} of the highlighting of the text
+		 * version {@code baseVersion}, to be applied with {@link Highlighting#splice(int, int, Highlighting)}
+		 * on that highlighting moved by the edits since. Spans outside the range stay as they are.
+		 */
+		public void setRange(int baseVersion, int start, int end) {
+			if (!rangeAllowed)
+				throw new IllegalStateException("range not allowed");
+			this.baseVersion = baseVersion;
+			this.rangeStart = start;
+			this.rangeEnd = end;
+		}
+		
+		public boolean hasRange() {
+			return rangeEnd >= 0;
+		}
+		
+		public int getBaseVersion() {
+			return baseVersion;
+		}
+		
+		public int getRangeStart() {
+			return rangeStart;
+		}
+		
+		public int getRangeEnd() {
+			return rangeEnd;
 		}
 		
 		@NonNull
-		 public Highlighting build() {
-			sort(lists);
-			Highlight[] highlights = lists.toArray(new Highlight[0]);
-			return new Highlighting(highlights);
+		public Highlighting build() {
+			if (!sorted)
+				sort();
+			return new Highlighting(Arrays.copyOf(types, typeCount), Arrays.copyOf(starts, size),
+					Arrays.copyOf(ends, size), Arrays.copyOf(typeIds, size));
+		}
+		
+		private void sort() {
+			long[] keys = new long[size];
+			for (int i = 0; i < size; i++) {
+				keys[i] = (long) starts[i] << 32 | i;
+			}
+			Arrays.sort(keys);
+			int[] sortedStarts = new int[starts.length];
+			int[] sortedEnds = new int[starts.length];
+			short[] sortedTypeIds = new short[starts.length];
+			for (int i = 0; i < size; i++) {
+				int index = (int) keys[i];
+				sortedStarts[i] = starts[index];
+				sortedEnds[i] = ends[index];
+				sortedTypeIds[i] = typeIds[index];
+				// order spans with the same start by end
+				for (int j = i; j > 0 && sortedStarts[j - 1] == sortedStarts[j] && sortedEnds[j - 1] > sortedEnds[j]; j--) {
+					int end = sortedEnds[j];
+					sortedEnds[j] = sortedEnds[j - 1];
+					sortedEnds[j - 1] = end;
+					short typeId = sortedTypeIds[j];
+					sortedTypeIds[j] = sortedTypeIds[j - 1];
+					sortedTypeIds[j - 1] = typeId;
+				}
+			}
+			starts = sortedStarts;
+			ends = sortedEnds;
+			typeIds = sortedTypeIds;
+			sorted = true;
 		}
 	}
 	
 	@NonNull
-	public Highlight[] highlights;
+	private TokenType[] types;
+	private int typeCount;
+	@NonNull
+	private int[] starts;
+	@NonNull
+	private int[] ends;
+	@NonNull
+	private short[] typeIds;
+	/**
+	 * The spans are kept in a gap buffer placed at the last edit, entries
+	 * {@code [gapStart, gapStart + gapLength)} of the arrays are unused.
+	 */
+	private int gapStart;
+	private int gapLength;
+	/**
+	 * Added to the offsets of the spans after the gap, so that an edit only moves the spans
+	 * it passes over instead of all spans after it.
+	 */
+	private int tailDelta;
+	
+	private Highlighting(@NonNull TokenType[] types, @NonNull int[] starts, @NonNull int[] ends, @NonNull short[] typeIds) {
+		this.types = types;
+		this.typeCount = types.length;
+		this.starts = starts;
+		this.ends = ends;
+		this.typeIds = typeIds;
+		this.gapStart = starts.length;
+	}
+	
+	public int size() {
+		return starts.length - gapLength;
+	}
+	
+	public int getStart(int index) {
+		return index < gapStart ? starts[index] : starts[index + gapLength] + tailDelta;
+	}
+	
+	public int getEnd(int index) {
+		return index < gapStart ? ends[index] : ends[index + gapLength] + tailDelta;
+	}
+	
+	@NonNull
+	public TokenType getType(int index) {
+		return types[typeIds[index < gapStart ? index : index + gapLength]];
+	}
+	
+	/**
+	 * Returns the index of a span from {@code fromIndex} on containing {@code offset}, ends
+	 * included, or {@code -(insertion point) - 1} if there is none.
+	 */
+	public int find(int fromIndex, int offset) {
+		int low = fromIndex;
+		int high = size() - 1;
+		
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			
+			if (getEnd(mid) < offset)
+				low = mid + 1;
+			else if (getStart(mid) > offset)
+				high = mid - 1;
+			else
+				return mid; // key found
+		}
+		return -(low + 1);  // key not found.
+	}
+	
+	/**
+	 * Moves the spans for {@code length} chars inserted at {@code offset}. A span around the
+	 * offset grows, one starting at it moves.
+	 */
+	public void textInserted(int offset, int length) {
+		moveGap(indexOf(offset));
+		for (int i = gapStart - 1; i >= 0 && ends[i] > offset; i--) {
+			ends[i] += length;
+		}
+		tailDelta += length;
+	}
+	
+	/**
+	 * Moves the spans for the chars in {@code [start, end)} deleted. Spans inside the range are
+	 * removed, spans overlapping it shrink.
+	 */
+	public void textDeleted(int start, int end) {
+		int length = end - start;
+		moveGap(indexOf(start));
+		for (int i = gapStart - 1; i >= 0 && ends[i] > start; i--) {
+			ends[i] = ends[i] > end ? ends[i] - length : start;
+		}
+		while (gapStart + gapLength < starts.length && starts[gapStart + gapLength] + tailDelta < end) {
+			int tail = gapStart + gapLength;
+			int spanEnd = ends[tail] + tailDelta;
+			if (spanEnd > end) {
+				// keep the part after the range, moved before the gap
+				starts[gapStart] = start;
+				ends[gapStart] = spanEnd - length;
+				typeIds[gapStart] = typeIds[tail];
+				gapStart++;
+			} else {
+				gapLength++;
+			}
+		}
+		tailDelta -= length;
+	}
 	
-	private Highlighting(@NonNull Highlight... highlights) {
-		this.highlights = highlights;
+	/**
+	 * Replaces the spans starting in {@code [start, end)} by those of {@code spans}, which lie in the
+	 * range, and cuts the spans reaching into the range from before it.
+	 */
+	public void splice(int start, int end, @NonNull Highlighting spans) {
+		moveGap(indexOf(start));
+		for (int i = gapStart - 1; i >= 0 && ends[i] > start; i--) {
+			ends[i] = start;
+		}
+		while (gapStart + gapLength < starts.length && starts[gapStart + gapLength] + tailDelta < end) {
+			gapLength++;
+		}
+		int count = spans.size();
+		if (count > gapLength)
+			growGap(count);
+		short[] ids = new short[spans.typeCount];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = typeId(spans.types[i]);
+		}
+		for (int i = 0; i < count; i++) {
+			starts[gapStart] = spans.getStart(i);
+			ends[gapStart] = spans.getEnd(i);
+			typeIds[gapStart] = ids[spans.typeIds[i < spans.gapStart ? i : i + spans.gapLength]];
+			gapStart++;
+			gapLength--;
+		}
+	}
+	
+	/**
+	 * Returns the index of the first span starting at or after {@code offset}.
+	 */
+	private int indexOf(int offset) {
+		int low = 0;
+		int high = size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (getStart(mid) < offset)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+	
+	private void moveGap(int index) {
+		if (gapLength == 0 && tailDelta == 0) {
+			gapStart = index;
+			return;
+		}
+		if (index < gapStart) {
+			for (int i = gapStart - 1; i >= index; i--) {
+				int tail = i + gapLength;
+				starts[tail] = starts[i] - tailDelta;
+				ends[tail] = ends[i] - tailDelta;
+				typeIds[tail] = typeIds[i];
+			}
+		} else {
+			for (int i = gapStart; i < index; i++) {
+				int tail = i + gapLength;
+				starts[i] = starts[tail] + tailDelta;
+				ends[i] = ends[tail] + tailDelta;
+				typeIds[i] = typeIds[tail];
+			}
+		}
+		gapStart = index;
+	}
+	
+	private void growGap(int length) {
+		int tailLength = starts.length - gapStart - gapLength;
+		int capacity = max(starts.length + (starts.length >> 1), gapStart + length + tailLength);
+		int tail = capacity - tailLength;
+		starts = grow(starts, capacity, tail);
+		ends = grow(ends, capacity, tail);
+		short[] newTypeIds = new short[capacity];
+		System.arraycopy(typeIds, 0, newTypeIds, 0, gapStart);
+		System.arraycopy(typeIds, gapStart + gapLength, newTypeIds, tail, tailLength);
+		typeIds = newTypeIds;
+		gapLength = tail - gapStart;
+	}
+	
+	private int[] grow(int[] array, int capacity, int tail) {
+		int[] newArray = new int[capacity];
+		System.arraycopy(array, 0, newArray, 0, gapStart);
+		System.arraycopy(array, gapStart + gapLength, newArray, tail, array.length - gapStart - gapLength);
+		return newArray;
+	}
+	
+	private short typeId(TokenType type) {
+		int id = indexOf(types, typeCount, type);
+		if (id >= 0) return (short) id;
+		if (typeCount == types.length)
+			types = Arrays.copyOf(types, max(4, typeCount * 2));
+		types[typeCount] = type;
+		return (short) typeCount++;
+	}
+	
+	private static int indexOf(TokenType[] types, int count, TokenType type) {
+		// a handful of types, the last one is the most likely
+		for (int i = count - 1; i >= 0; i--) {
+			if (types[i] == type) return i;
+		}
+		for (int i = count - 1; i >= 0; i--) {
+			if (types[i].equals(type)) return i;
+		}
+		if (count == Short.MAX_VALUE)
+			throw new IllegalStateException("too many token types");
+		return -1;
 	}
 	
 	@Override
@@ -49,13 +365,24 @@ public class Highlighting implements Parcelable {
 		
 		Highlighting that = (Highlighting) o;
 		
-		// Probably incorrect - comparing Object[] arrays with Arrays.equals
-		return Arrays.equals(highlights, that.highlights);
+		int size = size();
+		if (size != that.size()) return false;
+		for (int i = 0; i < size; i++) {
+			if (getStart(i) != that.getStart(i)) return false;
+			if (getEnd(i) != that.getEnd(i)) return false;
+			if (!getType(i).equals(that.getType(i))) return false;
+		}
+		return true;
 	}
 	
 	@Override
 	public int hashCode() {
-		return Arrays.hashCode(highlights);
+		int result = 1;
+		for (int i = 0, size = size(); i < size; i++) {
+			result = 31 * result + getStart(i);
+			result = 31 * result + getEnd(i);
+		}
+		return result;
 	}
 	
 	
@@ -66,15 +393,39 @@ public class Highlighting implements Parcelable {
 	
 	@Override
 	public void writeToParcel(Parcel dest, int flags) {
-		dest.writeTypedArray(this.highlights, flags);
+		moveGap(size());
+		dest.writeTypedArray(Arrays.copyOf(this.types, this.typeCount), flags);
+		dest.writeIntArray(Arrays.copyOf(this.starts, this.gapStart));
+		dest.writeIntArray(Arrays.copyOf(this.ends, this.gapStart));
+		for (int i = 0; i < this.gapStart; i++) {
+			dest.writeInt(this.typeIds[i]);
+		}
 	}
 	
 	public void readFromParcel(Parcel source) {
-		this.highlights = source.createTypedArray(Highlight.CREATOR);
+		this.types = source.createTypedArray(TokenType.CREATOR);
+		this.typeCount = this.types.length;
+		this.starts = source.createIntArray();
+		this.ends = source.createIntArray();
+		this.typeIds = new short[this.starts.length];
+		for (int i = 0; i < this.typeIds.length; i++) {
+			this.typeIds[i] = (short) source.readInt();
+		}
+		this.gapStart = this.starts.length;
+		this.gapLength = 0;
+		this.tailDelta = 0;
 	}
 	
 	protected Highlighting(Parcel in) {
-		this.highlights = in.createTypedArray(Highlight.CREATOR);
+		this.types = in.createTypedArray(TokenType.CREATOR);
+		this.typeCount = this.types.length;
+		this.starts = in.createIntArray();
+		this.ends = in.createIntArray();
+		this.typeIds = new short[this.starts.length];
+		for (int i = 0; i < this.typeIds.length; i++) {
+			this.typeIds[i] = (short) in.readInt();
+		}
+		this.gapStart = this.starts.length;
 	}
 	
 	public static final Parcelable.Creator<Highlighting> CREATOR = new Parcelable.Creator<Highlighting>() {
@@ -88,90 +439,4 @@ public class Highlighting implements Parcelable {
 			return new Highlighting[size];
 		}
 	};
-	
-	public static class Highlight implements Comparable<Highlight>, Parcelable {
-		@NonNull
-		public TokenType type;
-		public int startIndex;
-		public int stopIndex;
-		
-		public Highlight(@NonNull TokenType type, int startIndex, int stopIndex) {
-			this.type = type;
-			this.startIndex = startIndex;
-			this.stopIndex = stopIndex;
-		}
-		
-		@Override
-		public boolean equals(Object o) {
-			if (this == o) return true;
-			if (o == null || getClass() != o.getClass()) return false;
-			
-			Highlight highlight = (Highlight) o;
-			
-			if (startIndex != highlight.startIndex) return false;
-			if (stopIndex != highlight.stopIndex) return false;
-			return type.equals(highlight.type);
-		}
-		
-		@Override
-		public int hashCode() {
-			int result = type.hashCode();
-			result = 31 * result + startIndex;
-			result = 31 * result + stopIndex;
-			return result;
-		}
-		
-		@Override
-		public int compareTo(Highlight o) {
-			if (startIndex == o.startIndex)
-				return compare(stopIndex, o.stopIndex);
-			return compare(startIndex, o.startIndex);
-		}
-		
-		@NonNull
-		@Override
-		public String toString() {
-			return "Highlight{" +
-					"type=" + type.getName() +
-					", startIndex=" + startIndex +
-					", stopIndex=" + stopIndex +
-					'}';
-		}
-		
-		@Override
-		public int describeContents() {
-			return 0;
-		}
-		
-		@Override
-		public void writeToParcel(Parcel dest, int flags) {
-			dest.writeParcelable(this.type, flags);
-			dest.writeInt(this.startIndex);
-			dest.writeInt(this.stopIndex);
-		}
-		
-		public void readFromParcel(Parcel source) {
-			this.type = source.readParcelable(TokenType.class.getClassLoader());
-			this.startIndex = source.readInt();
-			this.stopIndex = source.readInt();
-		}
-		
-		protected Highlight(Parcel in) {
-			this.type = in.readParcelable(TokenType.class.getClassLoader());
-			this.startIndex = in.readInt();
-			this.stopIndex = in.readInt();
-		}
-		
-		public static final Creator<Highlight> CREATOR = new Creator<Highlight>() {
-			@Override
-			public Highlight createFromParcel(Parcel source) {
-				return new Highlight(source);
-			}
-			
-			@Override
-			public Highlight[] newArray(int size) {
-				return new Highlight[size];
-			}
-		};
-	}
 }
@@ -0,0 +1,117 @@
+package com.weg.android.editor.text;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * The matches of a {@link TextSearch}, sorted and not overlapping, stored as the columns
+ * {@code starts} and {@code ends}. The editor moves them along with its edits until the
+ * search runs again.
+ */
+public final class SearchResults {
+	private int[] starts = new int[64];
+	private int[] ends = new int[64];
+	private int size;
+	
+	public int size() {
+		return size;
+	}
+	
+	public int getStart(int index) {
+		return starts[index];
+	}
+	
+	public int getEnd(int index) {
+		return ends[index];
+	}
+	
+	/**
+	 * Replaces the matches {@code [from, to)} by {@code count} matches given as by
+	 * {@link TextSearch.Callback#onMatches}, which lie between the ones kept.
+	 */
+	public void replace(int from, int to, @NonNull int[] offsets, int count) {
+		int newSize = size - (to - from) + count;
+		if (newSize > starts.length) {
+			int capacity = Math.max(starts.length * 2, newSize);
+			starts = Arrays.copyOf(starts, capacity);
+			ends = Arrays.copyOf(ends, capacity);
+		}
+		System.arraycopy(starts, to, starts, from + count, size - to);
+		System.arraycopy(ends, to, ends, from + count, size - to);
+		for (int i = 0; i < count; i++) {
+			starts[from + i] = offsets[i * 2];
+			ends[from + i] = offsets[i * 2 + 1];
+		}
+		size = newSize;
+	}
+	
+	/**
+	 * Returns the index of the first match ending after {@code offset}, or {@link #size()}.
+	 */
+	public int find(int offset) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (ends[mid] <= offset)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+	
+	/**
+	 * Returns the index of the first match starting at or after {@code offset}, or {@link #size()}.
+	 */
+	public int findStart(int offset) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (starts[mid] < offset)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+	
+	/**
+	 * Moves the matches for {@code length} chars inserted at {@code offset}. A match around the
+	 * offset no longer matches and is removed.
+	 */
+	public void textInserted(int offset, int length) {
+		int index = find(offset);
+		if (index < size && starts[index] < offset)
+			remove(index, index + 1);
+		for (int i = index; i < size; i++) {
+			starts[i] += length;
+			ends[i] += length;
+		}
+	}
+	
+	/**
+	 * Moves the matches for the chars in {@code [start, end)} deleted. Matches overlapping the
+	 * range are removed.
+	 */
+	public void textDeleted(int start, int end) {
+		int index = find(start);
+		int last = index;
+		while (last < size && starts[last] < end) {
+			last++;
+		}
+		remove(index, last);
+		for (int i = index; i < size; i++) {
+			starts[i] -= end - start;
+			ends[i] -= end - start;
+		}
+	}
+	
+	private void remove(int from, int to) {
+		System.arraycopy(starts, to, starts, from, size - to);
+		System.arraycopy(ends, to, ends, from, size - to);
+		size -= to - from;
+	}
+}
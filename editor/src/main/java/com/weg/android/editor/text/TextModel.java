@@ -1,15 +1,16 @@
 package com.weg.android.editor.text;
 
-import android.graphics.Canvas;
-import android.graphics.Paint;
 import android.text.GetChars;
 
 import androidx.annotation.NonNull;
 
 import com.weg.android.editor.text.immutable.ImmutableText;
+import com.weg.android.editor.text.immutable.LineIterator;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 public class TextModel implements CharSequence, GetChars {
 	private static final char LF = '\n';
@@ -17,8 +18,8 @@ public class TextModel implements CharSequence, GetChars {
 	private boolean stopForwardTextChanges;
 	private List<TextChangeListener> listeners = new ArrayList<>();
 	private ImmutableText textStore;
-	private Cache cache;
-	private int lineCount;
+	private int version;
+	private TextSnapshot snapshot;
 	
 	public TextModel() {
 		this("");
@@ -30,8 +31,6 @@ public class TextModel implements CharSequence, GetChars {
 	
 	public TextModel(@NonNull ImmutableText textStore) {
 		this.textStore = textStore;
-		cache = new Cache();
-		lineCount = lineCount(0, length()) + 1;
 	}
 	
 	public void addTextChangeListener(@NonNull TextChangeListener listener) {
@@ -45,8 +44,7 @@ public class TextModel implements CharSequence, GetChars {
 	
 	public void setText(@NonNull CharSequence text) {
 		textStore = ImmutableText.valueOf(text);
-		lineCount = lineCount(0, length()) + 1;
-		cache.invalidate(0);
+		version++;
 		for (TextChangeListener listener : listeners) {
 			listener.textSet();
 		}
@@ -63,8 +61,7 @@ public class TextModel implements CharSequence, GetChars {
 		}
 		
 		textStore = textStore.insert(index, text);
-		lineCount += lineCount(index, text.length());
-		cache.invalidate(index);
+		version++;
 		if (stopForwardTextChanges) return;
 		for (TextChangeListener listener : listeners) {
 			listener.textInserted(index, text);
@@ -80,10 +77,8 @@ public class TextModel implements CharSequence, GetChars {
 			}
 		}
 		
-		int numberCount = lineCount(start, end - start);
 		textStore = textStore.delete(start, end);
-		lineCount -= numberCount;
-		cache.invalidate(start);
+		version++;
 		if (stopForwardTextChanges) return;
 		for (TextChangeListener listener : listeners) {
 			listener.textDeleted(start, end);
@@ -140,13 +135,33 @@ public class TextModel implements CharSequence, GetChars {
 		return textStore.toString();
 	}
 	
+	/**
+	 * Returns a number changed by every modification of this model.
+	 */
+	public int getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Returns the current text and version, without copying the text.
+	 * The snapshot holds its own read position and can be handed to another thread.
+	 */
+	@NonNull
+	public TextSnapshot getSnapshot() {
+		TextSnapshot snapshot = this.snapshot;
+		if (snapshot == null || snapshot.getVersion() != version) {
+			this.snapshot = snapshot = new TextSnapshot(textStore.view(), version);
+		}
+		return snapshot;
+	}
+	
 	public int getLineCount() {
-		return lineCount;
+		return textStore.lineBreakCount() + 1;
 	}
 	
 	@NonNull
 	public ImmutableText lineAt(int lineIndex) {
-		if (lineIndex < 0 || lineIndex >= lineCount)
+		if (lineIndex < 0 || lineIndex >= getLineCount())
 			throw new IndexOutOfBoundsException("invalid line index: " + lineIndex);
 		int start = getOffsetAtLine(lineIndex);
 		int length = getLineLength(lineIndex);
@@ -155,163 +170,69 @@ public class TextModel implements CharSequence, GetChars {
 	
 	@NonNull
 	public CharSequence getLine(int lineIndex) {
-		if (lineIndex < 0 || lineIndex >= lineCount)
+		if (lineIndex < 0 || lineIndex >= getLineCount())
 			throw new IndexOutOfBoundsException("invalid line index: " + lineIndex);
 		int start = getOffsetAtLine(lineIndex);
 		int length = getLineLength(lineIndex);
 		return subSequence(start, start + length);
 	}
 	
-	public int getOffsetAtLine(int lineIndex) {
-		if (lineIndex < 0 || lineIndex >= lineCount)
+	/**
+	 * Returns an iterator over the lines from {@code lineIndex} on, walking the text forward
+	 * once rather than looking up each line.
+	 */
+	@NonNull
+	public LineIterator lines(int lineIndex) {
+		if (lineIndex < 0 || lineIndex >= getLineCount())
 			throw new IndexOutOfBoundsException("invalid line index: " + lineIndex);
-		
-		int[] cachedEntry = cache.getNearestAtLine(lineIndex);
-		int cachedLine = cachedEntry[0];
-		int cachedOffset = cachedEntry[1];
-		
-		int offset;
-		if (lineIndex > cachedLine)
-			offset = findCharOffset(lineIndex, cachedLine, cachedOffset);
-		else if (lineIndex < cachedLine)
-			offset = findCharOffsetBackward(lineIndex, cachedLine, cachedOffset);
-		else
-			offset = cachedOffset;
-		
-		if (offset >= 0)
-			cache.updateEntry(lineIndex, offset);
-		return offset;
+		return textStore.lines(lineIndex);
 	}
 	
-	private int findCharOffset(int targetLine, int startLine, int startOffset) {
-		int workingLine = startLine;
-		int offset = startOffset;
-		
-		while (offset < length() && workingLine < targetLine) {
-			if (charAt(offset) == LF) {
-				++workingLine;
-			} else if (charAt(offset) == CR) {
-				if (offset + 1 < length() && charAt(offset + 1) == LF)
-					offset++;
-				++workingLine;
-			}
-			++offset;
-		}
-		
-		if (workingLine != targetLine)
-			return -1;
-		return offset;
-	}
-	
-	private int findCharOffsetBackward(int targetLine, int startLine, int startOffset) {
-		if (targetLine == 0) return 0;
-		
-		int workingLine = startLine;
-		int offset = startOffset;
-		while (offset >= 0 && workingLine > (targetLine - 1)) {
-			--offset;
-			
-			if (charAt(offset) == LF) {
-				if (offset - 1 >= 0 && charAt(offset - 1) == CR)
-					--offset;
-				--workingLine;
-			} else if (charAt(offset) == CR)
-				--workingLine;
-		}
-		
-		int charOffset;
-		if (offset >= 0) {
-			charOffset = offset;
-			++charOffset;
-		} else
-			charOffset = -1;
-		return charOffset;
+	public int getOffsetAtLine(int lineIndex) {
+		if (lineIndex < 0 || lineIndex >= getLineCount())
+			throw new IndexOutOfBoundsException("invalid line index: " + lineIndex);
+		return textStore.lineStartOffset(lineIndex);
 	}
 	
 	public int getLineAtOffset(int charOffset) {
 		checkRange("getLineAtOffset", charOffset);
-		int[] cachedEntry = cache.getNearestAtOffset(charOffset);
-		int line = cachedEntry[0];
-		int offset = cachedEntry[1];
-		int lastKnownLine = -1;
-		int lastKnownCharOffset = -1;
-		
-		if (charOffset > offset) {
-			// search forward
-			while (offset < length() && offset < charOffset) {
-				if (charAt(offset) == LF) {
-					++line;
-					lastKnownLine = line;
-					lastKnownCharOffset = offset + 1;
-				} else if (charAt(offset) == CR) {
-					if (offset + 1 < length() && charAt(offset + 1) == LF)
-						offset++;
-					++line;
-					lastKnownLine = line;
-					lastKnownCharOffset = offset + 1;
-				}
-				++offset;
-			}
-		} else if (charOffset < offset) {
-			// search backward
-			while (offset > charOffset) {
-				--offset;
-				if (charAt(offset) == LF) {
-					if (offset - 1 >= 0 && charAt(offset - 1) == CR)
-						offset--;
-					lastKnownLine = line;
-					lastKnownCharOffset = offset + 1;
-					--line;
-				} else if (charAt(offset) == CR) {
-					lastKnownLine = line;
-					lastKnownCharOffset = offset + 1;
-					--line;
-				}
-			}
-		}
-		
-		
-		if (offset == charOffset) {
-			if (lastKnownLine != -1)
-				cache.updateEntry(lastKnownLine, lastKnownCharOffset);
-			return line;
-		} else {
-			return -1;
-		}
+		return textStore.lineAtOffset(charOffset);
 	}
 	
 	
 	public int getLineLength(int lineIndex) {
-		if (lineIndex < 0 || lineIndex >= lineCount)
+		if (lineIndex < 0 || lineIndex >= getLineCount())
 			throw new IndexOutOfBoundsException("invalid line index: " + lineIndex);
 		
-		int length = 0;
 		int offset = getOffsetAtLine(lineIndex);
-		while (offset < length() && !isDelimiter(charAt(offset))) {
-			++length;
-			++offset;
-		}
-		return length;
-	}
-	
-	private boolean isDelimiter(char ch) {
-		if (ch == CR) return true;
-		return ch == LF;
-	}
-	
-	public void drawText(@NonNull Canvas c, int start, int end, float x, float y, @NonNull Paint p) {
-		checkRange("drawText", start, end);
-		textStore.drawText(c, start, end, x, y, p);
+		if (lineIndex + 1 >= getLineCount())
+			return length() - offset;
+		int end = getOffsetAtLine(lineIndex + 1) - 1;
+		if (end > offset && charAt(end) == LF && charAt(end - 1) == CR)
+			end--;
+		return end - offset;
 	}
 	
-	public int measureText(int start, int end, @NonNull Paint p) {
-		checkRange("measureText", start, end);
-		return textStore.measureText(start, end, p);
+	public int indexOf(char ch, int start, int end) {
+		checkRange("indexOf", start, end);
+		return textStore.indexOf(ch, start, end);
 	}
 	
-	public int getTextWidths(int start, int end, float[] widths, @NonNull Paint p) {
-		checkRange("getTextWidths", start, end);
-		return textStore.getTextWidths(start, end, widths, p);
+	/**
+	 * Runs a search over the current text on {@code executor}, the callback receiving the
+	 * matches from there as they are found. The search reads a snapshot, edits made meanwhile
+	 * are not seen. Cancel the returned future with interruption to stop the search.
+	 */
+	@NonNull
+	public Future<?> search(@NonNull final TextSearch search, @NonNull ExecutorService executor,
+	                        @NonNull final TextSearch.Callback callback) {
+		final ImmutableText text = textStore;
+		return executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				search.find(text, callback);
+			}
+		});
 	}
 	
 	@Override
@@ -320,33 +241,6 @@ public class TextModel implements CharSequence, GetChars {
 		textStore.getChars(start, end, dest, destoff);
 	}
 	
-	private int lineCount(int startOffset, int length) {
-		if (length == 0) return 0;
-		
-		int lineCount = 0;
-		int count = 0;
-		int i = startOffset;
-		
-		while (count < length) {
-			char ch = charAt(i);
-			if (ch == CR) {
-				if (i + 1 < length()) {
-					ch = charAt(i + 1);
-					if (ch == LF) {
-						i++;
-						count++;
-					}
-				}
-				lineCount++;
-			} else if (ch == LF)
-				lineCount++;
-			
-			count++;
-			i++;
-		}
-		return lineCount;
-	}
-	
 	private static String region(int start, int end) {
 		return "(" + start + " ... " + end + ")";
 	}
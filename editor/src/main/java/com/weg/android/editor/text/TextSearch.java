@@ -0,0 +1,254 @@
+package com.weg.android.editor.text;
+
+import androidx.annotation.NonNull;
+
+import com.weg.android.editor.text.immutable.ImmutableText;
+import com.weg.android.editor.text.immutable.TextCursor;
+
+import java.util.concurrent.CancellationException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A search for the matches of a literal or a regular expression in an {@link ImmutableText},
+ * reading the text in place. A literal is found with Boyer-Moore-Horspool over the leaf arrays,
+ * a regular expression is matched against the text as a {@code CharSequence}. Matches do not
+ * overlap and are reported in text order, empty matches are skipped.
+ *
+ * <p>A search runs on the calling thread, usually a background one, see
+ * {@link TextModel#search}. It throws {@link CancellationException} once that thread is
+ * interrupted.</p>
+ */
+public abstract class TextSearch {
+	private static final int BATCH_SIZE = 256;
+	
+	public interface Callback {
+		/**
+		 * Called on the searching thread with the next matches, the i-th one starting at
+		 * {@code offsets[2 * i]} and ending at {@code offsets[2 * i + 1]}. The array is reused
+		 * once this returns.
+		 */
+		void onMatches(@NonNull int[] offsets, int count);
+		
+		/**
+		 * Called on the searching thread after the last matches, unless the search is canceled.
+		 */
+		void onFinished(int matchCount);
+	}
+	
+	TextSearch() {}
+	
+	/**
+	 * Returns a search for the occurrences of {@code literal}.
+	 *
+	 * @throws IllegalArgumentException if {@code literal} is empty.
+	 */
+	@NonNull
+	public static TextSearch literal(@NonNull String literal, boolean ignoreCase) {
+		if (literal.isEmpty())
+			throw new IllegalArgumentException("empty literal");
+		return new Literal(literal, ignoreCase);
+	}
+	
+	@NonNull
+	public static TextSearch regex(@NonNull Pattern pattern) {
+		return new Regex(pattern);
+	}
+	
+	/**
+	 * Finds the matches in the whole text.
+	 *
+	 * @return the number of matches.
+	 */
+	public final int find(@NonNull ImmutableText text, @NonNull Callback callback) {
+		Batches batches = new Batches(callback);
+		find(text.view(), batches);
+		batches.flush();
+		callback.onFinished(batches.total);
+		return batches.total;
+	}
+	
+	abstract void find(ImmutableText text, Batches batches);
+	
+	static void checkCanceled() {
+		if (Thread.currentThread().isInterrupted())
+			throw new CancellationException();
+	}
+	
+	/**
+	 * Collects the matches and hands them over to the callback {@link #BATCH_SIZE} at a time.
+	 */
+	static final class Batches {
+		private final Callback callback;
+		private final int[] offsets = new int[BATCH_SIZE * 2];
+		private int count;
+		int total;
+		
+		Batches(Callback callback) {
+			this.callback = callback;
+		}
+		
+		void add(int start, int end) {
+			offsets[count * 2] = start;
+			offsets[count * 2 + 1] = end;
+			total++;
+			if (++count == BATCH_SIZE) {
+				flush();
+				checkCanceled();
+			}
+		}
+		
+		void flush() {
+			if (count == 0) return;
+			callback.onMatches(offsets, count);
+			count = 0;
+		}
+	}
+	
+	private static final class Literal extends TextSearch {
+		private final char[] pattern;
+		private final boolean ignoreCase;
+		/**
+		 * The Horspool shift of each char by its low byte, the smallest shift of the pattern
+		 * chars sharing a byte.
+		 */
+		private final int[] shifts = new int[256];
+		
+		Literal(String literal, boolean ignoreCase) {
+			this.ignoreCase = ignoreCase;
+			pattern = literal.toCharArray();
+			int last = pattern.length - 1;
+			for (int i = 0; i < pattern.length; i++) {
+				pattern[i] = fold(pattern[i]);
+			}
+			for (int i = 0; i < 256; i++) {
+				shifts[i] = pattern.length;
+			}
+			for (int i = 0; i < last; i++) {
+				shifts[pattern[i] & 0xff] = last - i;
+			}
+		}
+		
+		private char fold(char ch) {
+			return ignoreCase ? Character.toLowerCase(Character.toUpperCase(ch)) : ch;
+		}
+		
+		@Override
+		void find(ImmutableText text, Batches batches) {
+			int length = text.length();
+			int last = pattern.length - 1;
+			int position = 0;
+			TextCursor cursor = text.cursor(0);
+			while (position + last < length) {
+				checkCanceled();
+				while (position + last >= cursor.getEnd()) {
+					cursor.next();
+				}
+				if (position >= cursor.getOffset()) {
+					position = findInChunk(cursor, position, batches);
+				} else {
+					// the window spans leaves, compare through the text
+					char ch = fold(text.charAt(position + last));
+					int i = last;
+					while (i >= 0 && fold(text.charAt(position + i)) == pattern[i]) {
+						i--;
+					}
+					if (i < 0) {
+						batches.add(position, position + pattern.length);
+						position += pattern.length;
+					} else {
+						position += shifts[ch & 0xff];
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Finds the matches whose window lies in the current chunk from {@code position}, and
+		 * returns the position of the first window ending past the chunk.
+		 */
+		private int findInChunk(TextCursor cursor, int position, Batches batches) {
+			int last = pattern.length - 1;
+			int base = cursor.getArrayOffset() - cursor.getOffset();
+			int end = cursor.getEnd();
+			byte[] bytes = cursor.getBytes();
+			char[] chars = cursor.getChars();
+			while (position + last < end) {
+				int index = base + position;
+				char ch = fold(charAt(bytes, chars, index + last));
+				int i = last;
+				if (ch == pattern[last]) {
+					i--;
+					while (i >= 0 && fold(charAt(bytes, chars, index + i)) == pattern[i]) {
+						i--;
+					}
+				}
+				if (i < 0) {
+					batches.add(position, position + pattern.length);
+					position += pattern.length;
+				} else {
+					position += shifts[ch & 0xff];
+				}
+			}
+			return position;
+		}
+		
+		private static char charAt(byte[] bytes, char[] chars, int index) {
+			return bytes != null ? (char) (bytes[index] & 0xff) : chars[index];
+		}
+	}
+	
+	private static final class Regex extends TextSearch {
+		private final Pattern pattern;
+		
+		Regex(Pattern pattern) {
+			this.pattern = pattern;
+		}
+		
+		@Override
+		void find(ImmutableText text, Batches batches) {
+			Matcher matcher = pattern.matcher(new CancelableText(text));
+			while (matcher.find()) {
+				if (matcher.end() > matcher.start())
+					batches.add(matcher.start(), matcher.end());
+			}
+		}
+	}
+	
+	/**
+	 * A text checking for cancellation every 64K chars read, so a long running match is
+	 * canceled too.
+	 */
+	private static final class CancelableText implements CharSequence {
+		private final ImmutableText text;
+		private int reads;
+		
+		CancelableText(ImmutableText text) {
+			this.text = text;
+		}
+		
+		@Override
+		public int length() {
+			return text.length();
+		}
+		
+		@Override
+		public char charAt(int index) {
+			if ((++reads & 0xffff) == 0)
+				checkCanceled();
+			return text.charAt(index);
+		}
+		
+		@NonNull
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return text.subSequence(start, end);
+		}
+		
+		@NonNull
+		@Override
+		public String toString() {
+			return text.toString();
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package com.weg.android.editor.text;
+
+import androidx.annotation.NonNull;
+
+import com.weg.android.editor.text.immutable.ImmutableText;
+
+/**
+ * The text of a {@link TextModel} at a given version. The text is immutable and shares its
+ * nodes with the model, so a snapshot costs nothing to take and can be read from any thread.
+ */
+public final class TextSnapshot {
+	private final ImmutableText text;
+	private final int version;
+	
+	TextSnapshot(@NonNull ImmutableText text, int version) {
+		this.text = text;
+		this.version = version;
+	}
+	
+	@NonNull
+	public ImmutableText getText() {
+		return text;
+	}
+	
+	/**
+	 * Returns the version of the model this snapshot was taken at, see {@link TextModel#getVersion()}.
+	 */
+	public int getVersion() {
+		return version;
+	}
+	
+	public int length() {
+		return text.length();
+	}
+}
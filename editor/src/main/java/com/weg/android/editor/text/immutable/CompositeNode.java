@@ -1,21 +1,27 @@
 package com.weg.android.editor.text.immutable;
 
-import android.graphics.Canvas;
-import android.graphics.Paint;
-
-import androidx.annotation.NonNull;
-
 class CompositeNode extends Node {
 	
-	private static final long serialVersionUID = -7874644415678216997L;
+	private static final long serialVersionUID = 3508871366352624930L;
 	final int count;
 	final Node head;
 	final Node tail;
+	final int lineBreaks;
+	/**
+	 * Whether the head ends with CR and the tail starts with LF, the pair is a single line break.
+	 */
+	final boolean joinsCRLF;
+	private final boolean startsWithLF;
+	private final boolean endsWithCR;
 	
 	CompositeNode(Node head, Node tail) {
 		count = head.length() + tail.length();
 		this.head = head;
 		this.tail = tail;
+		joinsCRLF = head.endsWithCR() && tail.startsWithLF();
+		lineBreaks = head.lineBreaks() + tail.lineBreaks() - (joinsCRLF ? 1 : 0);
+		startsWithLF = head.length() != 0 ? head.startsWithLF() : tail.startsWithLF();
+		endsWithCR = tail.length() != 0 ? tail.endsWithCR() : head.endsWithCR();
 	}
 	
 	
@@ -23,6 +29,28 @@ class CompositeNode extends Node {
 		return count;
 	}
 	
+	@Override
+	int lineBreaks() {
+		return lineBreaks;
+	}
+	
+	@Override
+	boolean startsWithLF() {
+		return startsWithLF;
+	}
+	
+	@Override
+	boolean endsWithCR() {
+		return endsWithCR;
+	}
+	
+	/**
+	 * Returns the number of line breaks counted by the head once merged with the tail.
+	 */
+	int headLineBreaks() {
+		return joinsCRLF ? head.lineBreaks() - 1 : head.lineBreaks();
+	}
+	
 	
 	public char charAt(int index) {
 		int headLength = head.length();
@@ -64,56 +92,6 @@ class CompositeNode extends Node {
 		}
 	}
 	
-	@Override
-	public void drawText(@NonNull Canvas c, int start, int end, float x, float y, @NonNull Paint p) {
-		final int cesure = head.length();
-		if (end <= cesure) {
-			c.drawText(head, start, end, x, y, p);
-		} else if (start >= cesure) {
-			c.drawText(tail, start - cesure, end - cesure, x, y, p);
-		} else { // Overlaps head and tail.
-			char[] temp = TemporaryBuffer.obtain(end - start);
-			head.getChars(start, cesure, temp, 0);
-			tail.getChars(0, end - cesure, temp, cesure - start);
-			c.drawText(temp, 0, end - start, x, y, p);
-			TemporaryBuffer.recycle(temp);
-		}
-	}
-	
-	@Override
-	public int measureText(int start, int end, @NonNull Paint p) {
-		final int cesure = head.length();
-		if (end <= cesure) {
-			return (int) p.measureText(head,start,end);
-		} else if (start >= cesure) {
-			return (int) p.measureText(tail,start-cesure,end-cesure);
-		} else { // Overlaps head and tail.
-			char[] temp = TemporaryBuffer.obtain(end - start);
-			head.getChars(start, cesure, temp, 0);
-			tail.getChars(0, end - cesure, temp, cesure - start);
-			int r= (int) p.measureText(temp,0,end - start);
-			TemporaryBuffer.recycle(temp);
-			return r;
-		}
-	}
-	
-	@Override
-	public int getTextWidths(int start, int end, float[] widths, @NonNull Paint p) {
-		final int cesure = head.length();
-		if (end <= cesure) {
-			return p.getTextWidths(head, start, end, widths);
-		} else if (start >= cesure) {
-			return p.getTextWidths(tail, start - cesure, end - cesure, widths);
-		} else { // Overlaps head and tail.
-			char[] temp = TemporaryBuffer.obtain(end - start);
-			head.getChars(start, cesure, temp, 0);
-			tail.getChars(0, end - cesure, temp, cesure - start);
-			int r = p.getTextWidths(temp, 0, end - start, widths);
-			TemporaryBuffer.recycle(temp);
-			return r;
-		}
-	}
-	
 	
 	public Node subNode(int start, int end) {
 		final int cesure = head.length();
@@ -27,13 +27,13 @@
  */
 package com.weg.android.editor.text.immutable;
 
-import android.graphics.Canvas;
-import android.graphics.Paint;
 import android.os.Parcel;
 import android.os.Parcelable;
 
 import androidx.annotation.NonNull;
 
+import java.util.Arrays;
+
 /**
  * A pruned and optimized version of javolution.text.Text
  *
@@ -58,14 +58,16 @@ import androidx.annotation.NonNull;
 @SuppressWarnings({"AssignmentToForLoopParameter", "UnnecessaryThis"})
 public final class ImmutableText implements CharSequence, Parcelable {
 	/**
-	 * Holds the default size for primitive blocks of characters.
+	 * Holds the default size for primitive blocks of characters, texts up to this size are
+	 * merged into a single block.
 	 */
-	private static final int BLOCK_SIZE = 1 << 6;
+	static final int BLOCK_SIZE = 1 << 6;
 	
 	/**
-	 * Holds the mask used to ensure a block boundary cesures.
+	 * Holds the default size of the leaves cut by a {@link Builder}, larger leaves make a
+	 * shallower tree while slicing a leaf shares its array.
 	 */
-	private static final int BLOCK_MASK = -BLOCK_SIZE;
+	static final int LEAF_SIZE = 1 << 10;
 	
 	private Node myNode;
 	
@@ -86,12 +88,18 @@ public final class ImmutableText implements CharSequence, Parcelable {
 		return valueOf(String.valueOf(obj));
 	}
 	
+	/**
+	 * Returns the text of a char sequence, chunked into blocks in one pass by a {@link Builder}.
+	 */
 	public static ImmutableText valueOf(CharSequence str) {
-		return new ImmutableText(createLeafNode(str));
+		if (str instanceof ImmutableText) return (ImmutableText) str;
+		if (str.length() <= BLOCK_SIZE) return new ImmutableText(createLeafNode(str));
+		return new Builder().append(str).build();
 	}
 	
 	public static ImmutableText valueOf(char[] chars) {
-		return new ImmutableText(createLeafNode(new CharArrayCharSequence(chars)));
+		if (chars.length <= BLOCK_SIZE) return new ImmutableText(createLeafNode(new CharArrayCharSequence(chars)));
+		return new Builder().append(chars, 0, chars.length).build();
 	}
 	
 	static LeafNode createLeafNode(CharSequence str) {
@@ -104,6 +112,130 @@ public final class ImmutableText implements CharSequence, Parcelable {
 		return new WideLeafNode(chars);
 	}
 	
+	/**
+	 * Builds a text from chars appended in order. The chars are cut into leaves of
+	 * {@link #LEAF_SIZE}, or of the size given, as they come, and the leaves are paired into a
+	 * balanced tree in the same pass, so the first edit of the text costs as much as any other.
+	 * Each leaf counts its line breaks when created, so the line index is complete once
+	 * the last char is appended. A builder touches no shared state, texts can be built on a
+	 * background thread.
+	 */
+	public static final class Builder {
+		private final char[] block;
+		private int blockLength;
+		/**
+		 * The complete subtrees built so far, the i-th one of {@code 2^levels[i]} leaves,
+		 * levels strictly decreasing.
+		 */
+		private final Node[] nodes = new Node[32];
+		private final int[] levels = new int[32];
+		private int size;
+		
+		public Builder() {
+			this(LEAF_SIZE);
+		}
+		
+		/**
+		 * Creates a builder cutting leaves of {@code leafSize} chars. Larger leaves make a
+		 * shallower tree, smaller ones cheaper edits.
+		 *
+		 * @throws IllegalArgumentException if {@code leafSize < 1}
+		 */
+		public Builder(int leafSize) {
+			if (leafSize < 1)
+				throw new IllegalArgumentException("Leaf size: " + leafSize);
+			block = new char[leafSize];
+		}
+		
+		@NonNull
+		public Builder append(@NonNull char[] chars, int start, int end) {
+			while (start < end) {
+				int count = Math.min(end - start, block.length - blockLength);
+				System.arraycopy(chars, start, block, blockLength, count);
+				blockLength += count;
+				start += count;
+				if (blockLength == block.length)
+					flushBlock();
+			}
+			return this;
+		}
+		
+		@NonNull
+		public Builder append(@NonNull CharSequence seq) {
+			int start = 0;
+			int end = seq.length();
+			while (start < end) {
+				int count = Math.min(end - start, block.length - blockLength);
+				getChars(seq, block, start, blockLength, count);
+				blockLength += count;
+				start += count;
+				if (blockLength == block.length)
+					flushBlock();
+			}
+			return this;
+		}
+		
+		@NonNull
+		public ImmutableText build() {
+			if (blockLength > 0)
+				flushBlock();
+			if (size == 0)
+				return EMPTY;
+			Node node = nodes[--size];
+			while (size > 0) {
+				node = concatNodes(nodes[--size], node);
+			}
+			return new ImmutableText(node);
+		}
+		
+		/**
+		 * Appends a whole leaf, of about the size of the other leaves appended for the tree
+		 * to stay balanced.
+		 */
+		void appendLeaf(LeafNode leaf) {
+			if (blockLength > 0)
+				flushBlock();
+			push(leaf);
+		}
+		
+		private void flushBlock() {
+			push(leafOf(block, blockLength));
+			blockLength = 0;
+		}
+		
+		private void push(Node node) {
+			int level = 0;
+			while (size > 0 && levels[size - 1] == level) {
+				node = new CompositeNode(nodes[--size], node);
+				level++;
+			}
+			nodes[size] = node;
+			levels[size] = level;
+			size++;
+		}
+		
+		private static LeafNode leafOf(char[] chars, int length) {
+			for (int i = 0; i < length; i++) {
+				if ((chars[i] & 0xff00) != 0)
+					return new WideLeafNode(Arrays.copyOf(chars, length));
+			}
+			byte[] bytes = new byte[length];
+			for (int i = 0; i < length; i++) {
+				bytes[i] = (byte) chars[i];
+			}
+			return new Leaf8BitNode(bytes);
+		}
+	}
+	
+	/**
+	 * Returns {@code true} if a slice of a leaf should share the array of the leaf rather
+	 * than copy its chars. Small slices are copied, so that a slice never keeps alive an
+	 * array more than four times its size.
+	 */
+	static boolean sharesArray(int length, int arrayLength) {
+		return length > BLOCK_SIZE && length * 4 >= arrayLength;
+	}
+	
 	private static final int GET_CHARS_THRESHOLD = 10;
 	
 	/**
@@ -147,29 +279,6 @@ public final class ImmutableText implements CharSequence, Parcelable {
 		return bytes;
 	}
 	
-	/**
-	 * When first loaded, ImmutableText contents are stored as a single large array. This saves memory but isn't
-	 * modification-friendly as it disallows slightly changed texts to retain most of the internal structure of the
-	 * original document. Whoever retains old non-chunked version will use more memory than really needed.
-	 *
-	 * @return a copy of this text better prepared for small modifications to fully enable structure-sharing capabilities
-	 */
-	private ImmutableText ensureChunked() {
-		if (length() > BLOCK_SIZE && myNode instanceof LeafNode) {
-			return new ImmutableText(nodeOf((LeafNode) myNode, 0, length()));
-		}
-		return this;
-	}
-	
-	private static Node nodeOf(LeafNode node, int offset, int length) {
-		if (length <= BLOCK_SIZE) {
-			return node.subNode(offset, offset + length);
-		}
-		// Splits on a block boundary.
-		int half = ((length + BLOCK_SIZE) >> 1) & BLOCK_MASK;
-		return new CompositeNode(nodeOf(node, offset, half), nodeOf(node, offset + half, length - half));
-	}
-	
 	private static final LeafNode EMPTY_NODE = new Leaf8BitNode(new byte[0]);
 	private static final ImmutableText EMPTY = new ImmutableText(EMPTY_NODE);
 	
@@ -193,7 +302,7 @@ public final class ImmutableText implements CharSequence, Parcelable {
 	 * @return {@code this + that}
 	 */
 	private ImmutableText concat(ImmutableText that) {
-		return that.length() == 0 ? this : length() == 0 ? that : new ImmutableText(concatNodes(ensureChunked().myNode, that.ensureChunked().myNode));
+		return that.length() == 0 ? this : length() == 0 ? that : new ImmutableText(concatNodes(myNode, that.myNode));
 	}
 	
 	
@@ -247,7 +356,7 @@ public final class ImmutableText implements CharSequence, Parcelable {
 		if (start > end) {
 			throw new IndexOutOfBoundsException();
 		}
-		return ensureChunked().subtext(0, start).concat(subtext(end));
+		return subtext(0, start).concat(subtext(end));
 	}
 	
 	
@@ -296,8 +405,24 @@ public final class ImmutableText implements CharSequence, Parcelable {
 	
 	public int hashCode() {
 		int h = hash;
-		if (h == 0) {
-			hash = h = stringHashCode(this, length());
+		if (h == 0 && length() != 0) {
+			TextCursor cursor = cursor(0);
+			do {
+				int from = cursor.getArrayOffset();
+				int to = from + cursor.getLength();
+				if (cursor.isLatin1()) {
+					byte[] bytes = cursor.getBytes();
+					for (int i = from; i < to; i++) {
+						h = 31 * h + (bytes[i] & 0xff);
+					}
+				} else {
+					char[] chars = cursor.getChars();
+					for (int i = from; i < to; i++) {
+						h = 31 * h + chars[i];
+					}
+				}
+			} while (cursor.next());
+			hash = h;
 		}
 		return h;
 	}
@@ -310,6 +435,21 @@ public final class ImmutableText implements CharSequence, Parcelable {
 		return h;
 	}
 	
+	/**
+	 * Returns the character at the specified index.
+	 *
+	 * <p> This method is lock-free and safe to call from several threads at once.
+	 * The last leaf found is kept as a hint, the hint is an immutable object read
+	 * once per call, so a racing thread only ever sees a valid hint or an older one
+	 * and falls back to a tree descent. Threads scanning different regions of the
+	 * same text keep replacing each other's hint though, each of them should read
+	 * through its own {@link #view()} or {@link #cursor(int)}.</p>
+	 *
+	 * @param index the index of the character.
+	 * @return the character at the specified index.
+	 * @throws IndexOutOfBoundsException if {@code (index < 0) ||
+	 *                                   (index >= this.length())}
+	 */
 	public char charAt(int index) {
 		InnerLeaf leaf = myLastLeaf;
 		if (leaf == null || index < leaf.offset || index >= leaf.end) {
@@ -320,6 +460,17 @@ public final class ImmutableText implements CharSequence, Parcelable {
 	
 	private InnerLeaf myLastLeaf;
 	
+	/**
+	 * Returns a text sharing all the nodes of this text but holding its own leaf hint,
+	 * for a thread that reads this text concurrently with others.
+	 *
+	 * @return an equal text, created in {@code O[1]}.
+	 */
+	@NonNull
+	public ImmutableText view() {
+		return new ImmutableText(myNode);
+	}
+	
 	private InnerLeaf findLeaf(int index) {
 		Node node = myNode;
 		if (index < 0 || index >= node.length())
@@ -344,6 +495,171 @@ public final class ImmutableText implements CharSequence, Parcelable {
 		}
 	}
 	
+	/**
+	 * Returns the number of line breaks in this text, a CR+LF pair counts as one break.
+	 *
+	 * @return the number of lines minus one.
+	 */
+	public int lineBreakCount() {
+		return myNode.lineBreaks();
+	}
+
+	/**
+	 * Returns the offset of the first character of the specified line,
+	 * in {@code O[Log(n)]} using the line break counts held by the nodes.
+	 *
+	 * @param line the line index.
+	 * @return the offset just past the {@code line}-th line break.
+	 * @throws IndexOutOfBoundsException if {@code (line < 0) ||
+	 *                                   (line > this.lineBreakCount())}
+	 */
+	public int lineStartOffset(int line) {
+		Node node = myNode;
+		if (line < 0 || line > node.lineBreaks())
+			throw new IndexOutOfBoundsException("Line out of range: " + line);
+		if (line == 0) return 0;
+
+		int offset = 0;
+		while (node instanceof CompositeNode) {
+			CompositeNode composite = (CompositeNode) node;
+			int headLineBreaks = composite.headLineBreaks();
+			if (line <= headLineBreaks) {
+				node = composite.head;
+			} else {
+				offset += composite.head.length();
+				line -= headLineBreaks;
+				node = composite.tail;
+			}
+		}
+		return offset + ((LeafNode) node).offsetAfterLineBreak(line);
+	}
+
+	/**
+	 * Returns the line containing the specified offset, in {@code O[Log(n)]}.
+	 * An offset between the CR and the LF of a line break belongs to the line
+	 * ended by that break.
+	 *
+	 * @param index the character offset.
+	 * @return the line index.
+	 * @throws IndexOutOfBoundsException if {@code (index < 0) ||
+	 *                                   (index > this.length())}
+	 */
+	public int lineAtOffset(int index) {
+		Node node = myNode;
+		if (index < 0 || index > node.length())
+			throw new IndexOutOfBoundsException("Index out of range: " + index);
+
+		int line = 0;
+		int end = index;
+		while (node instanceof CompositeNode) {
+			CompositeNode composite = (CompositeNode) node;
+			int cesure = composite.head.length();
+			if (end <= cesure) {
+				node = composite.head;
+			} else {
+				line += composite.headLineBreaks();
+				end -= cesure;
+				node = composite.tail;
+			}
+		}
+		line += ((LeafNode) node).lineBreaksBefore(end);
+		if (index > 0 && index < length() && charAt(index - 1) == LeafNode.CR && charAt(index) == LeafNode.LF)
+			line--;
+		return line;
+	}
+
+	/**
+	 * Returns a cursor over the leaves of this text, positioned on the chunk
+	 * containing the specified index.
+	 *
+	 * @param index the character index.
+	 * @return a new cursor.
+	 * @throws IndexOutOfBoundsException if {@code (index < 0) ||
+	 *                                   (index > this.length())}
+	 */
+	@NonNull
+	public TextCursor cursor(int index) {
+		return new TextCursor(myNode, index);
+	}
+	
+	/**
+	 * Returns an iterator over the lines of this text from the specified line on.
+	 *
+	 * @param line the index of the first line.
+	 * @return a new iterator, positioned before that line.
+	 * @throws IndexOutOfBoundsException if {@code (line < 0) ||
+	 *                                   (line > this.lineBreakCount())}
+	 */
+	@NonNull
+	public LineIterator lines(int line) {
+		return new LineIterator(this, line);
+	}
+	
+	/**
+	 * Returns a reader over this text.
+	 *
+	 * @return a reader streaming the leaves of this text.
+	 */
+	@NonNull
+	public TextReader reader() {
+		return new TextReader(this, 0, length());
+	}
+	
+	/**
+	 * Returns a reader over a portion of this text.
+	 *
+	 * @param start the index of the first character inclusive.
+	 * @param end   the index of the last character exclusive.
+	 * @return a reader streaming the leaves of the portion.
+	 * @throws IndexOutOfBoundsException if {@code (start < 0) || (end < 0) ||
+	 *                                   (start > end) || (end > this.length())}
+	 */
+	@NonNull
+	public TextReader reader(int start, int end) {
+		if (start < 0 || start > end || end > length())
+			throw new IndexOutOfBoundsException();
+		return new TextReader(this, start, end);
+	}
+	
+	/**
+	 * Returns the index of the first occurrence of the specified character
+	 * within a portion of this text, scanning the leaf arrays directly.
+	 *
+	 * @param ch    the character to search for.
+	 * @param start the index to start the search from inclusive.
+	 * @param end   the index to stop the search at exclusive.
+	 * @return the index of the character, or {@code -1} if it does not occur.
+	 * @throws IndexOutOfBoundsException if {@code (start < 0) || (end < 0) ||
+	 *                                   (start > end) || (end > this.length())}
+	 */
+	public int indexOf(char ch, int start, int end) {
+		if (start < 0 || start > end || end > length())
+			throw new IndexOutOfBoundsException();
+		if (start == end) return -1;
+		
+		TextCursor cursor = cursor(start);
+		do {
+			int offset = cursor.getOffset();
+			int base = cursor.getArrayOffset() - offset;
+			int from = Math.max(start, offset) + base;
+			int to = Math.min(end, cursor.getEnd()) + base;
+			if (cursor.isLatin1()) {
+				if (ch > 0xff) continue;
+				byte[] bytes = cursor.getBytes();
+				byte b = (byte) ch;
+				for (int i = from; i < to; i++) {
+					if (bytes[i] == b) return i - base;
+				}
+			} else {
+				char[] chars = cursor.getChars();
+				for (int i = from; i < to; i++) {
+					if (chars[i] == ch) return i - base;
+				}
+			}
+		} while (cursor.getEnd() < end && cursor.next());
+		return -1;
+	}
+	
 	/**
 	 * Returns a portion of this text.
 	 *
@@ -385,18 +701,6 @@ public final class ImmutableText implements CharSequence, Parcelable {
 		myNode.getChars(start, end, dest, destPos);
 	}
 	
-	public void drawText(@NonNull Canvas c, int start, int end, float x, float y, @NonNull Paint p) {
-		myNode.drawText(c, start, end, x, y, p);
-	}
-	
-	public int measureText(int start, int end, @NonNull Paint p) {
-		return myNode.measureText(start, end, p);
-	}
-	
-	public int getTextWidths(int start, int end, float[] widths, @NonNull Paint p) {
-		return myNode.getTextWidths(start, end, widths, p);
-	}
-	
 	
 	/**
 	 * Returns the {@code String} representation of this text.
@@ -450,17 +754,15 @@ public final class ImmutableText implements CharSequence, Parcelable {
 	@Override
 	public void writeToParcel(Parcel dest, int flags) {
 		dest.writeSerializable(this.myNode);
-		dest.writeSerializable(this.myLastLeaf);
 	}
 	
 	public void readFromParcel(Parcel source) {
 		this.myNode = (Node) source.readSerializable();
-		this.myLastLeaf = (InnerLeaf) source.readSerializable();
+		this.myLastLeaf = null;
 	}
 	
 	private ImmutableText(Parcel in) {
 		this.myNode = (Node) in.readSerializable();
-		this.myLastLeaf = (InnerLeaf) in.readSerializable();
 	}
 	
 	public static final Parcelable.Creator<ImmutableText> CREATOR = new Parcelable.Creator<ImmutableText>() {
@@ -1,10 +1,11 @@
 package com.weg.android.editor.text.immutable;
 
-import java.io.Serializable;
-
-class InnerLeaf implements Serializable {
+/**
+ * A leaf and its offset in the text, all fields are final so that a hint published
+ * through a data race is always seen fully constructed.
+ */
+final class InnerLeaf {
 	
-	private static final long serialVersionUID = -5216781464500402910L;
 	final LeafNode leafNode;
 	final int offset;
 	final int end;
@@ -1,86 +1,103 @@
 package com.weg.android.editor.text.immutable;
 
-import android.graphics.Canvas;
-import android.graphics.Paint;
-
-import androidx.annotation.NonNull;
-
 class Leaf8BitNode extends LeafNode {
 	
-	private static final long serialVersionUID = 2763979021661909997L;
+	private static final long serialVersionUID = 4175325926183746207L;
 	private final byte[] data;
+	private final int offset;
+	private final int length;
+	private final int lineBreaks;
 	
 	Leaf8BitNode(byte[] data) {
+		this(data, 0, data.length);
+	}
+	
+	/**
+	 * Creates a leaf of {@code data[offset, offset + length)}, the array is shared.
+	 */
+	Leaf8BitNode(byte[] data, int offset, int length) {
 		this.data = data;
+		this.offset = offset;
+		this.length = length;
+		this.lineBreaks = lineBreaks(data, offset, offset + length);
+	}
+	
+	private static int lineBreaks(byte[] data, int start, int end) {
+		int count = 0;
+		for (int i = start; i < end; i++) {
+			byte b = data[i];
+			if (b == CR) {
+				if (i + 1 < end && data[i + 1] == LF)
+					i++;
+				count++;
+			} else if (b == LF) {
+				count++;
+			}
+		}
+		return count;
 	}
 	
 	
 	public int length() {
-		return data.length;
+		return length;
 	}
 	
+	@Override
+	byte[] byteArray() {
+		return data;
+	}
 	
-	public void getChars(int start, int end, char[] dest, int destPos) {
-		if (start < 0 || end > length() || start > end) {
-			throw new IndexOutOfBoundsException();
-		}
-		for (int i = start; i < end; i++) {
-			dest[destPos++] = byteToChar(data[i]);
-		}
+	@Override
+	char[] charArray() {
+		return null;
 	}
 	
 	@Override
-	public void drawText(@NonNull Canvas c, int start, int end, float x, float y, @NonNull Paint p) {
-		if (start < 0 || end > length() || start > end) {
-			throw new IndexOutOfBoundsException();
-		}
-		
-		char[] temp = TemporaryBuffer.obtain(end - start);
-		getChars(start, end, temp, 0);
-		c.drawText(temp, 0, end - start, x, y, p);
-		TemporaryBuffer.recycle(temp);
+	int arrayOffset() {
+		return offset;
 	}
 	
 	@Override
-	public int measureText(int start, int end, @NonNull Paint p) {
-		if (start < 0 || end > length() || start > end) {
-			throw new IndexOutOfBoundsException();
-		}
-		
-		char[] temp = TemporaryBuffer.obtain(end - start);
-		getChars(start, end, temp, 0);
-		int r = (int) p.measureText(temp, 0, end - start);
-		TemporaryBuffer.recycle(temp);
-		return r;
+	int lineBreaks() {
+		return lineBreaks;
+	}
+	
+	@Override
+	boolean startsWithLF() {
+		return length != 0 && data[offset] == LF;
 	}
 	
 	@Override
-	public int getTextWidths(int start, int end, float[] widths, @NonNull Paint p) {
+	boolean endsWithCR() {
+		return length != 0 && data[offset + length - 1] == CR;
+	}
+	
+	
+	public void getChars(int start, int end, char[] dest, int destPos) {
 		if (start < 0 || end > length() || start > end) {
 			throw new IndexOutOfBoundsException();
 		}
-		
-		char[] temp = TemporaryBuffer.obtain(end - start);
-		getChars(start, end, temp, 0);
-		int r = p.getTextWidths(temp, 0, end - start, widths);
-		TemporaryBuffer.recycle(temp);
-		return r;
+		for (int i = offset + start, last = offset + end; i < last; i++) {
+			dest[destPos++] = byteToChar(data[i]);
+		}
 	}
 	
-	
 	public LeafNode subNode(int start, int end) {
 		if (start == 0 && end == length()) {
 			return this;
 		}
 		int length = end - start;
-		byte[] chars = new byte[length];
-		System.arraycopy(data, start, chars, 0, length);
-		return new Leaf8BitNode(chars);
+		if (!ImmutableText.sharesArray(length, data.length)) {
+			byte[] chars = new byte[length];
+			System.arraycopy(data, offset + start, chars, 0, length);
+			return new Leaf8BitNode(chars);
+		}
+		return new Leaf8BitNode(data, offset + start, length);
 	}
 	
 	
 	public char charAt(int index) {
-		return byteToChar(data[index]);
+		return byteToChar(data[offset + index]);
 	}
 	
 	private static char byteToChar(byte b) {
@@ -1,4 +1,88 @@
 package com.weg.android.editor.text.immutable;
 
 abstract class LeafNode extends Node {
+	static final char LF = '\n';
+	static final char CR = '\r';
+	
+	/**
+	 * Returns the 8-bit backing array of this leaf, or {@code null} if it holds chars.
+	 */
+	abstract byte[] byteArray();
+	
+	/**
+	 * Returns the 16-bit backing array of this leaf, or {@code null} if it holds bytes.
+	 */
+	abstract char[] charArray();
+	
+	/**
+	 * Returns the index of the first character of this leaf in its backing array.
+	 */
+	int arrayOffset() {
+		return 0;
+	}
+	
+	/**
+	 * Returns the offset just past the {@code count}-th line break of this leaf,
+	 * with {@code 1 <= count <= lineBreaks()}.
+	 */
+	int offsetAfterLineBreak(int count) {
+		byte[] bytes = byteArray();
+		char[] chars = charArray();
+		int start = arrayOffset();
+		int end = start + length();
+		for (int i = start; i < end; i++) {
+			char ch = bytes != null ? (char) (bytes[i] & 0xff) : chars[i];
+			if (ch == CR) {
+				char next = i + 1 >= end ? 0 : bytes != null ? (char) (bytes[i + 1] & 0xff) : chars[i + 1];
+				if (next == LF)
+					i++;
+			} else if (ch != LF) {
+				continue;
+			}
+			if (--count == 0)
+				return i + 1 - start;
+		}
+		throw new IndexOutOfBoundsException("Line break out of range: " + count);
+	}
+	
+	/**
+	 * Returns the number of line breaks in {@code [0, end)}, a CR at {@code end - 1} is counted.
+	 */
+	int lineBreaksBefore(int end) {
+		int start = arrayOffset();
+		byte[] bytes = byteArray();
+		if (bytes != null) {
+			int count = 0;
+			for (int i = start, last = start + end; i < last; i++) {
+				byte b = bytes[i];
+				if (b == CR) {
+					if (i + 1 < last && bytes[i + 1] == LF)
+						i++;
+					count++;
+				} else if (b == LF) {
+					count++;
+				}
+			}
+			return count;
+		}
+		return lineBreaks(charArray(), start, start + end);
+	}
+	
+	/**
+	 * Returns the number of line breaks in {@code chars[start, end)}, a CR+LF pair counts as one.
+	 */
+	static int lineBreaks(char[] chars, int start, int end) {
+		int count = 0;
+		for (int i = start; i < end; i++) {
+			char ch = chars[i];
+			if (ch == CR) {
+				if (i + 1 < end && chars[i + 1] == LF)
+					i++;
+				count++;
+			} else if (ch == LF) {
+				count++;
+			}
+		}
+		return count;
+	}
 }
@@ -0,0 +1,93 @@
+package com.weg.android.editor.text.immutable;
+
+/**
+ * Walks the lines of an {@link ImmutableText} forward from a line, finding each line end
+ * in one scan of the chunks instead of looking up every line from the root.
+ *
+ * <pre>{@code
+ * LineIterator lines = text.lines(firstLine);
+ * while (lines.next() && lines.getLine() <= lastLine) {
+ *     draw(lines.getStart(), lines.getLength());
+ * }
+ * }</pre>
+ *
+ * <p>The line length excludes the line break, as {@code TextModel.getLineLength} does.</p>
+ */
+public final class LineIterator {
+	private final TextCursor cursor;
+	private final int length;
+	private int line;
+	private int start;
+	private int lineLength;
+	private int next;
+	
+	LineIterator(ImmutableText text, int line) {
+		this.length = text.length();
+		this.line = line - 1;
+		this.next = text.lineStartOffset(line);
+		this.cursor = text.cursor(next);
+	}
+	
+	/**
+	 * Moves to the following line, the first call moves to the line this iterator was
+	 * created for.
+	 *
+	 * @return {@code false} if there are no more lines.
+	 */
+	public boolean next() {
+		if (next < 0) return false;
+		line++;
+		start = next;
+		int end = lineEnd(start);
+		lineLength = end - start;
+		if (end == length)
+			next = -1;
+		else if (charAt(end) == LeafNode.CR && end + 1 < length && charAt(end + 1) == LeafNode.LF)
+			next = end + 2;
+		else
+			next = end + 1;
+		return true;
+	}
+	
+	public int getLine() {
+		return line;
+	}
+	
+	public int getStart() {
+		return start;
+	}
+	
+	public int getLength() {
+		return lineLength;
+	}
+	
+	private int lineEnd(int position) {
+		while (position < length) {
+			while (position >= cursor.getEnd()) {
+				if (!cursor.next()) return length;
+			}
+			int chunkEnd = cursor.getEnd();
+			int base = cursor.getArrayOffset() - cursor.getOffset();
+			if (cursor.isLatin1()) {
+				byte[] bytes = cursor.getBytes();
+				for (; position < chunkEnd; position++) {
+					byte ch = bytes[base + position];
+					if (ch == LeafNode.LF || ch == LeafNode.CR) return position;
+				}
+			} else {
+				char[] chars = cursor.getChars();
+				for (; position < chunkEnd; position++) {
+					char ch = chars[base + position];
+					if (ch == LeafNode.LF || ch == LeafNode.CR) return position;
+				}
+			}
+		}
+		return length;
+	}
+	
+	private char charAt(int index) {
+		if (index >= cursor.getEnd() || index < cursor.getOffset())
+			cursor.seek(index);
+		return cursor.charAt(index - cursor.getOffset());
+	}
+}
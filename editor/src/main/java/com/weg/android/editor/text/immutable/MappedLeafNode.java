@@ -0,0 +1,102 @@
+package com.weg.android.editor.text.immutable;
+
+import java.io.ObjectStreamException;
+
+/**
+ * A leaf holding a range of a page of a {@link PagedFile} instead of its chars, which are
+ * decoded from the file when read. Slices of a page stay backed by the file, small ones are
+ * copied into in-memory leaves as the text around an edit is.
+ */
+class MappedLeafNode extends LeafNode {
+	
+	private static final long serialVersionUID = -2385203846619328812L;
+	private final transient PagedFile file;
+	private final int page;
+	private final int start;
+	private final int length;
+	private final int lineBreaks;
+	private final boolean startsWithLF;
+	private final boolean endsWithCR;
+	
+	MappedLeafNode(PagedFile file, int page, int start, int length, int lineBreaks, boolean startsWithLF,
+	               boolean endsWithCR) {
+		this.file = file;
+		this.page = page;
+		this.start = start;
+		this.length = length;
+		this.lineBreaks = lineBreaks;
+		this.startsWithLF = startsWithLF;
+		this.endsWithCR = endsWithCR;
+	}
+	
+	public int length() {
+		return length;
+	}
+	
+	@Override
+	byte[] byteArray() {
+		return null;
+	}
+	
+	@Override
+	char[] charArray() {
+		return file.chars(page);
+	}
+	
+	@Override
+	int arrayOffset() {
+		return start;
+	}
+	
+	@Override
+	int lineBreaks() {
+		return lineBreaks;
+	}
+	
+	@Override
+	boolean startsWithLF() {
+		return startsWithLF;
+	}
+	
+	@Override
+	boolean endsWithCR() {
+		return endsWithCR;
+	}
+	
+	public void getChars(int start, int end, char[] dest, int destPos) {
+		if (start < 0 || end > length() || start > end) {
+			throw new IndexOutOfBoundsException();
+		}
+		System.arraycopy(file.chars(page), this.start + start, dest, destPos, end - start);
+	}
+	
+	
+	public Node subNode(int start, int end) {
+		if (start == 0 && end == length()) {
+			return this;
+		}
+		char[] chars = file.chars(page);
+		int from = this.start + start;
+		int to = this.start + end;
+		if (end - start <= ImmutableText.BLOCK_SIZE) {
+			return ImmutableText.createLeafNode(new CharArrayCharSequence(chars, from, to));
+		}
+		return new MappedLeafNode(file, page, from, end - start, lineBreaks(chars, from, to),
+				chars[from] == LF, chars[to - 1] == CR);
+	}
+	
+	
+	public char charAt(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException();
+		}
+		return file.chars(page)[start + index];
+	}
+	
+	/**
+	 * Serializes the chars themselves, the file is only valid in this process.
+	 */
+	private Object writeReplace() throws ObjectStreamException {
+		return ImmutableText.createLeafNode(this);
+	}
+}
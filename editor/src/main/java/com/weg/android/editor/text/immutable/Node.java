@@ -1,21 +1,24 @@
 package com.weg.android.editor.text.immutable;
 
-import android.graphics.Canvas;
-import android.graphics.Paint;
-
 import androidx.annotation.NonNull;
 
 import java.io.Serializable;
 
 abstract class Node implements CharSequence, Serializable {
 	abstract public void getChars(int start, int end, char[] dest, int destPos);
-	abstract public void drawText(@NonNull Canvas c, int start, int end, float x, float y, @NonNull Paint p);
 	
-	abstract public int measureText(int start, int end, @NonNull Paint p);
+	abstract public Node subNode(int start, int end);
+	
+	/**
+	 * Returns the number of line breaks (LF, CR or CR+LF) in this node. A trailing CR is
+	 * always counted here; when it is followed by a LF starting the next node, the
+	 * enclosing {@link CompositeNode} merges both into a single break.
+	 */
+	abstract int lineBreaks();
 	
-	abstract public int getTextWidths(int start, int end, float[] widths, @NonNull Paint p);
+	abstract boolean startsWithLF();
 	
-	abstract public Node subNode(int start, int end);
+	abstract boolean endsWithCR();
 	
 	@NonNull
 	public String toString() {
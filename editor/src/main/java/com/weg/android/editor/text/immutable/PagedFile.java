@@ -0,0 +1,111 @@
+package com.weg.android.editor.text.immutable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A file cut into pages of decoded chars by {@link TextLoader#loadPaged}, each page decoded
+ * again from its own bytes when it is read. Only the last {@link #CAPACITY} pages read stay
+ * decoded, evicted in least recently used order through a clock, so the heap taken by a file
+ * is its page table plus those pages whatever its size.
+ *
+ * <p>Pages are decoded independently, which {@link TextLoader#loadPaged} checks while indexing.
+ * The file must not change while its text is in use.</p>
+ */
+final class PagedFile {
+	static final int PAGE_CHARS = 1 << 15;
+	private static final int CAPACITY = 32;
+	
+	private final FileChannel channel;
+	private final Charset charset;
+	private final long[] byteOffsets;
+	private final int[] charLengths;
+	private final int[] lineBreaks;
+	private final AtomicReferenceArray<char[]> decoded;
+	/**
+	 * Whether each page was read since the clock hand last passed it, a hint written without
+	 * synchronization.
+	 */
+	private final boolean[] referenced;
+	private final int[] resident = new int[CAPACITY];
+	private int hand;
+	
+	/**
+	 * @param byteOffsets the offset of each page in the file, followed by the end of the last page.
+	 * @param charLengths the number of chars of each page.
+	 * @param lineBreaks  the number of line breaks of each page.
+	 */
+	PagedFile(FileChannel channel, Charset charset, long[] byteOffsets, int[] charLengths, int[] lineBreaks) {
+		this.channel = channel;
+		this.charset = charset;
+		this.byteOffsets = byteOffsets;
+		this.charLengths = charLengths;
+		this.lineBreaks = lineBreaks;
+		this.decoded = new AtomicReferenceArray<>(charLengths.length);
+		this.referenced = new boolean[charLengths.length];
+		for (int i = 0; i < CAPACITY; i++) {
+			resident[i] = -1;
+		}
+	}
+	
+	/**
+	 * Returns the decoded chars of a page. The array is not modified afterwards, it stays valid
+	 * once the page is evicted.
+	 *
+	 * @throws IllegalStateException if the page cannot be read or no longer decodes as indexed.
+	 */
+	char[] chars(int page) {
+		char[] chars = decoded.get(page);
+		if (chars == null) {
+			chars = decode(page);
+			synchronized (resident) {
+				if (decoded.get(page) == null) {
+					int slot = victim();
+					if (resident[slot] >= 0)
+						decoded.set(resident[slot], null);
+					resident[slot] = page;
+					decoded.set(page, chars);
+				}
+			}
+		}
+		referenced[page] = true;
+		return chars;
+	}
+	
+	private int victim() {
+		while (true) {
+			int slot = hand;
+			hand = (hand + 1) % CAPACITY;
+			int page = resident[slot];
+			if (page < 0 || !referenced[page])
+				return slot;
+			referenced[page] = false;
+		}
+	}
+	
+	private char[] decode(int page) {
+		long start = byteOffsets[page];
+		long size = byteOffsets[page + 1] - start;
+		char[] chars = new char[charLengths[page]];
+		try {
+			ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+			CharBuffer out = CharBuffer.wrap(chars);
+			CoderResult result = charset.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE)
+					.decode(in, out, true);
+			if (result.isError() || in.hasRemaining() || out.hasRemaining()
+					|| LeafNode.lineBreaks(chars, 0, chars.length) != lineBreaks[page])
+				throw new IllegalStateException("Page " + page + " does not decode as indexed, the file has changed");
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot read page " + page, e);
+		}
+		return chars;
+	}
+}
@@ -0,0 +1,185 @@
+package com.weg.android.editor.text.immutable;
+
+import androidx.annotation.Nullable;
+
+/**
+ * A cursor over the leaves of an {@link ImmutableText}. Each chunk exposes the backing
+ * array of one leaf, so scans can run as plain array loops instead of {@code charAt} calls
+ * that may descend the tree again.
+ *
+ * <pre>{@code
+ * TextCursor cursor = text.cursor(0);
+ * do {
+ *     int from = cursor.getArrayOffset(), to = from + cursor.getLength();
+ *     if (cursor.isLatin1()) {
+ *         byte[] bytes = cursor.getBytes(); // scan bytes[from, to)
+ *     } else {
+ *         char[] chars = cursor.getChars(); // scan chars[from, to)
+ *     }
+ * } while (cursor.next());
+ * }</pre>
+ *
+ * <p>A cursor holds its own position and is not thread-safe, but any number of cursors may
+ * walk the same text concurrently.</p>
+ */
+public final class TextCursor {
+	private final Node root;
+	private CompositeNode[] parents = new CompositeNode[32];
+	private boolean[] inTail = new boolean[32];
+	private int depth;
+	private LeafNode leaf;
+	private int offset;
+	
+	TextCursor(Node root, int index) {
+		this.root = root;
+		seek(index);
+	}
+	
+	/**
+	 * Moves this cursor to the chunk containing the specified index, an index equal to
+	 * the text length selects the last chunk.
+	 *
+	 * @param index the character index.
+	 * @throws IndexOutOfBoundsException if {@code (index < 0) || (index > length)}
+	 */
+	public void seek(int index) {
+		if (index < 0 || index > root.length())
+			throw new IndexOutOfBoundsException("Index out of range: " + index);
+		
+		Node node = root;
+		depth = 0;
+		offset = 0;
+		while (node instanceof CompositeNode) {
+			CompositeNode composite = (CompositeNode) node;
+			int cesure = composite.head.length();
+			boolean tail = index - offset >= cesure && composite.tail.length() != 0;
+			push(composite, tail);
+			if (tail) {
+				offset += cesure;
+				node = composite.tail;
+			} else {
+				node = composite.head;
+			}
+		}
+		leaf = (LeafNode) node;
+	}
+	
+	/**
+	 * Moves this cursor to the following chunk.
+	 *
+	 * @return {@code false} if this cursor was on the last chunk, it is left unchanged then.
+	 */
+	public boolean next() {
+		int level = depth - 1;
+		while (level >= 0 && inTail[level]) level--;
+		if (level < 0) return false;
+		
+		int next = offset + leaf.length();
+		depth = level;
+		CompositeNode parent = parents[level];
+		push(parent, true);
+		Node node = parent.tail;
+		while (node instanceof CompositeNode) {
+			push((CompositeNode) node, false);
+			node = ((CompositeNode) node).head;
+		}
+		leaf = (LeafNode) node;
+		offset = next;
+		return true;
+	}
+	
+	/**
+	 * Moves this cursor to the preceding chunk.
+	 *
+	 * @return {@code false} if this cursor was on the first chunk, it is left unchanged then.
+	 */
+	public boolean previous() {
+		int level = depth - 1;
+		while (level >= 0 && !inTail[level]) level--;
+		if (level < 0) return false;
+		
+		depth = level;
+		CompositeNode parent = parents[level];
+		push(parent, false);
+		Node node = parent.head;
+		while (node instanceof CompositeNode) {
+			push((CompositeNode) node, true);
+			node = ((CompositeNode) node).tail;
+		}
+		leaf = (LeafNode) node;
+		offset -= leaf.length();
+		return true;
+	}
+	
+	private void push(CompositeNode parent, boolean tail) {
+		if (depth == parents.length) {
+			CompositeNode[] newParents = new CompositeNode[depth * 2];
+			boolean[] newInTail = new boolean[depth * 2];
+			System.arraycopy(parents, 0, newParents, 0, depth);
+			System.arraycopy(inTail, 0, newInTail, 0, depth);
+			parents = newParents;
+			inTail = newInTail;
+		}
+		parents[depth] = parent;
+		inTail[depth] = tail;
+		depth++;
+	}
+	
+	/**
+	 * Returns the index of the first character of the current chunk in the text.
+	 */
+	public int getOffset() {
+		return offset;
+	}
+	
+	/**
+	 * Returns the index after the last character of the current chunk in the text.
+	 */
+	public int getEnd() {
+		return offset + leaf.length();
+	}
+	
+	public int getLength() {
+		return leaf.length();
+	}
+	
+	/**
+	 * Returns {@code true} if the current chunk is backed by {@link #getBytes()},
+	 * {@code false} if it is backed by {@link #getChars()}.
+	 */
+	public boolean isLatin1() {
+		return leaf.byteArray() != null;
+	}
+	
+	/**
+	 * Returns the 8-bit backing array of the current chunk, each byte is an unsigned ISO-8859-1 char.
+	 * The array is shared with the text and must not be modified.
+	 */
+	@Nullable
+	public byte[] getBytes() {
+		return leaf.byteArray();
+	}
+	
+	/**
+	 * Returns the 16-bit backing array of the current chunk.
+	 * The array is shared with the text and must not be modified.
+	 */
+	@Nullable
+	public char[] getChars() {
+		return leaf.charArray();
+	}
+	
+	/**
+	 * Returns the index of the first character of the current chunk in its backing array.
+	 */
+	public int getArrayOffset() {
+		return leaf.arrayOffset();
+	}
+	
+	/**
+	 * Returns the character at the specified index of the current chunk.
+	 */
+	public char charAt(int index) {
+		return leaf.charAt(index);
+	}
+}
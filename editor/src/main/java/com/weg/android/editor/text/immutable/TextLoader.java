@@ -0,0 +1,319 @@
+package com.weg.android.editor.text.immutable;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Loads an {@link ImmutableText} from a file or a stream, decoding it chunk by chunk into an
+ * {@link ImmutableText.Builder}, so the content is never held as a {@code String} nor as a
+ * single array on the way. Malformed input is replaced, as {@link java.io.InputStreamReader}
+ * does.
+ *
+ * <p>Loading runs on the calling thread and throws {@link CancellationException} once that
+ * thread is interrupted.</p>
+ */
+public final class TextLoader {
+	private static final int MAP_SIZE = 1 << 20;
+	private static final int BYTE_BUFFER_SIZE = 1 << 14;
+	private static final int CHAR_BUFFER_SIZE = 1 << 13;
+	private static final byte[] UTF_16BE_MARK = {(byte) 0xFE, (byte) 0xFF};
+	private static final byte[] UTF_16LE_MARK = {(byte) 0xFF, (byte) 0xFE};
+	private static final byte[] UTF_32BE_MARK = {0, 0, (byte) 0xFE, (byte) 0xFF};
+	private static final byte[] UTF_32LE_MARK = {(byte) 0xFF, (byte) 0xFE, 0, 0};
+	
+	public interface ProgressListener {
+		/**
+		 * Called on the loading thread after each chunk.
+		 *
+		 * @param loaded the number of bytes decoded so far.
+		 * @param total  the number of bytes to decode, or -1 if it is not known.
+		 */
+		void onProgress(long loaded, long total);
+	}
+	
+	private TextLoader() {}
+	
+	/**
+	 * Loads {@code size} bytes of a file from {@code position}, mapping it one window at a time
+	 * and decoding straight from the mapped memory.
+	 */
+	@NonNull
+	public static ImmutableText load(@NonNull FileChannel channel, long position, long size, @NonNull Charset charset,
+	                                 @Nullable ProgressListener listener) throws IOException {
+		CharsetDecoder decoder = newDecoder(charset);
+		CharBuffer out = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+		ImmutableText.Builder builder = new ImmutableText.Builder();
+		long loaded = 0;
+		do {
+			checkCanceled();
+			long window = Math.min(MAP_SIZE, size - loaded);
+			ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, position + loaded, window);
+			decode(decoder, in, out, builder, loaded + window == size);
+			// a sequence split by the window end is decoded again from the next window
+			loaded += in.position();
+			if (listener != null)
+				listener.onProgress(loaded, size);
+		} while (loaded < size);
+		return finish(decoder, out, builder);
+	}
+	
+	/**
+	 * Indexes {@code size} bytes of a file from {@code position} into a text whose leaves are
+	 * pages of the file, decoded again when read. Only the page table is kept on the heap, and
+	 * the pages of the last lines read, so files far larger than the heap can be opened. The
+	 * file is decoded once to find the pages and their line breaks.
+	 *
+	 * <p>The channel must stay open, and the file unchanged, as long as the text or any text
+	 * derived from it is in use.</p>
+	 *
+	 * @throws UnsupportedCharsetException if a page does not decode alone as it does after the
+	 *                                     previous ones, the charset shifting state across pages.
+	 */
+	@NonNull
+	public static ImmutableText loadPaged(@NonNull FileChannel channel, long position, long size,
+	                                      @NonNull Charset charset, @Nullable ProgressListener listener) throws IOException {
+		ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(UTF_32BE_MARK.length, size));
+		charset = pageCharset(charset, head);
+		CharsetDecoder decoder = newDecoder(charset);
+		CharBuffer out = CharBuffer.allocate(PagedFile.PAGE_CHARS);
+		long loaded = head.position();
+		PageTable table = new PageTable(channel, charset, position + loaded);
+		do {
+			checkCanceled();
+			long window = Math.min(MAP_SIZE, size - loaded);
+			ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, position + loaded, window);
+			boolean endOfInput = loaded + window == size;
+			while (true) {
+				CoderResult result = decoder.decode(in, out, endOfInput);
+				if (result.isUnderflow()) break;
+				if (result.isOverflow())
+					table.addPage(out, position + loaded + in.position());
+				else
+					result.throwException();
+			}
+			loaded += in.position();
+			if (listener != null)
+				listener.onProgress(loaded, size);
+		} while (loaded < size);
+		while (decoder.flush(out).isOverflow()) {
+			table.addPage(out, position + loaded);
+		}
+		if (out.position() > 0)
+			table.addPage(out, position + loaded);
+		return table.build();
+	}
+	
+	/**
+	 * Returns the charset decoding each page of a file as {@code charset} decodes the whole file,
+	 * and moves {@code head} past the byte order mark {@code charset} reads. The byte order is
+	 * settled by the mark at the start of the file, the pages after the first have none.
+	 */
+	private static Charset pageCharset(Charset charset, ByteBuffer head) {
+		switch (charset.name()) {
+			case "UTF-16":
+			case "x-UTF-16LE-BOM":
+				if (skipMark(head, UTF_16BE_MARK)) return StandardCharsets.UTF_16BE;
+				if (skipMark(head, UTF_16LE_MARK)) return StandardCharsets.UTF_16LE;
+				return charset.name().equals("UTF-16") ? StandardCharsets.UTF_16BE : StandardCharsets.UTF_16LE;
+			case "UTF-32":
+				if (skipMark(head, UTF_32BE_MARK)) return Charset.forName("UTF-32BE");
+				if (skipMark(head, UTF_32LE_MARK)) return Charset.forName("UTF-32LE");
+				return Charset.forName("UTF-32BE");
+			case "X-UTF-32BE-BOM":
+				skipMark(head, UTF_32BE_MARK);
+				return Charset.forName("UTF-32BE");
+			case "X-UTF-32LE-BOM":
+				skipMark(head, UTF_32LE_MARK);
+				return Charset.forName("UTF-32LE");
+			default:
+				return charset;
+		}
+	}
+	
+	private static boolean skipMark(ByteBuffer head, byte[] mark) {
+		if (head.remaining() < mark.length) return false;
+		for (int i = 0; i < mark.length; i++) {
+			if (head.get(i) != mark[i]) return false;
+		}
+		head.position(mark.length);
+		return true;
+	}
+	
+	/**
+	 * Loads all the bytes of a channel.
+	 *
+	 * @param size the number of bytes expected for the progress, or -1 if it is not known.
+	 */
+	@NonNull
+	public static ImmutableText load(@NonNull ReadableByteChannel channel, long size, @NonNull Charset charset,
+	                                 @Nullable ProgressListener listener) throws IOException {
+		CharsetDecoder decoder = newDecoder(charset);
+		ByteBuffer in = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+		CharBuffer out = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+		ImmutableText.Builder builder = new ImmutableText.Builder();
+		long loaded = 0;
+		while (true) {
+			checkCanceled();
+			int read = channel.read(in);
+			if (read < 0) break;
+			loaded += read;
+			in.flip();
+			decode(decoder, in, out, builder, false);
+			in.compact();
+			if (listener != null)
+				listener.onProgress(loaded, size);
+		}
+		in.flip();
+		decode(decoder, in, out, builder, true);
+		return finish(decoder, out, builder);
+	}
+	
+	/**
+	 * Loads all the chars of a reader.
+	 */
+	@NonNull
+	public static ImmutableText load(@NonNull Reader reader) throws IOException {
+		char[] buffer = new char[CHAR_BUFFER_SIZE];
+		ImmutableText.Builder builder = new ImmutableText.Builder();
+		while (true) {
+			checkCanceled();
+			int read = reader.read(buffer, 0, buffer.length);
+			if (read < 0) break;
+			builder.append(buffer, 0, read);
+		}
+		return builder.build();
+	}
+	
+	private static CharsetDecoder newDecoder(Charset charset) {
+		return charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+	
+	private static void decode(CharsetDecoder decoder, ByteBuffer in, CharBuffer out, ImmutableText.Builder builder,
+	                           boolean endOfInput) throws IOException {
+		while (true) {
+			CoderResult result = decoder.decode(in, out, endOfInput);
+			if (result.isUnderflow()) return;
+			if (result.isOverflow())
+				drain(out, builder);
+			else
+				result.throwException();
+		}
+	}
+	
+	private static ImmutableText finish(CharsetDecoder decoder, CharBuffer out, ImmutableText.Builder builder) {
+		while (decoder.flush(out).isOverflow()) {
+			drain(out, builder);
+		}
+		drain(out, builder);
+		return builder.build();
+	}
+	
+	private static void drain(CharBuffer out, ImmutableText.Builder builder) {
+		builder.append(out.array(), 0, out.position());
+		out.clear();
+	}
+	
+	/**
+	 * The pages found so far by {@link #loadPaged}.
+	 */
+	private static final class PageTable {
+		/**
+		 * The number of chars of each page checked to decode alone as they were indexed.
+		 */
+		private static final int CHECKED_CHARS = 16;
+		
+		private final FileChannel channel;
+		private final Charset charset;
+		private final ByteBuffer checkIn = ByteBuffer.allocate(CHECKED_CHARS * 4);
+		private final CharBuffer checkOut = CharBuffer.allocate(CHECKED_CHARS);
+		private long[] byteOffsets = new long[64];
+		private int[] charLengths = new int[64];
+		private int[] lineBreaks = new int[64];
+		private boolean[] startsWithLF = new boolean[64];
+		private boolean[] endsWithCR = new boolean[64];
+		private int count;
+		
+		PageTable(FileChannel channel, Charset charset, long position) {
+			this.channel = channel;
+			this.charset = charset;
+			byteOffsets[0] = position;
+		}
+		
+		/**
+		 * Adds the chars decoded in {@code out} as a page ending at {@code byteEnd}, and clears it.
+		 */
+		void addPage(CharBuffer out, long byteEnd) throws IOException {
+			if (count + 1 == byteOffsets.length) {
+				int capacity = byteOffsets.length * 2;
+				byteOffsets = Arrays.copyOf(byteOffsets, capacity);
+				charLengths = Arrays.copyOf(charLengths, capacity);
+				lineBreaks = Arrays.copyOf(lineBreaks, capacity);
+				startsWithLF = Arrays.copyOf(startsWithLF, capacity);
+				endsWithCR = Arrays.copyOf(endsWithCR, capacity);
+			}
+			char[] chars = out.array();
+			int length = out.position();
+			checkDecodesAlone(chars, length, byteEnd);
+			charLengths[count] = length;
+			lineBreaks[count] = LeafNode.lineBreaks(chars, 0, length);
+			startsWithLF[count] = length != 0 && chars[0] == LeafNode.LF;
+			endsWithCR[count] = length != 0 && chars[length - 1] == LeafNode.CR;
+			byteOffsets[++count] = byteEnd;
+			out.clear();
+		}
+		
+		/**
+		 * Decodes the start of the page being added with a new decoder, as {@link PagedFile} does,
+		 * and checks it gives the chars indexed. A charset shifting state, such as ISO-2022-JP,
+		 * may have left the decoder in a state the page does not start in.
+		 */
+		private void checkDecodesAlone(char[] chars, int length, long byteEnd) throws IOException {
+			if (count == 0) return;
+			long start = byteOffsets[count];
+			checkIn.clear();
+			checkIn.limit((int) Math.min(checkIn.capacity(), byteEnd - start));
+			channel.read(checkIn, start);
+			checkIn.flip();
+			checkOut.clear();
+			// a sequence cut by the end of the bytes read is left undecoded
+			newDecoder(charset).decode(checkIn, checkOut, false);
+			for (int i = 0; i < checkOut.position() && i < length; i++) {
+				if (checkOut.get(i) != chars[i])
+					throw new UnsupportedCharsetException(charset.name());
+			}
+		}
+		
+		ImmutableText build() {
+			PagedFile file = new PagedFile(channel, charset, Arrays.copyOf(byteOffsets, count + 1),
+					Arrays.copyOf(charLengths, count), Arrays.copyOf(lineBreaks, count));
+			ImmutableText.Builder builder = new ImmutableText.Builder();
+			for (int page = 0; page < count; page++) {
+				builder.appendLeaf(new MappedLeafNode(file, page, 0, charLengths[page], lineBreaks[page],
+						startsWithLF[page], endsWithCR[page]));
+			}
+			return builder.build();
+		}
+	}
+	
+	private static void checkCanceled() {
+		if (Thread.currentThread().isInterrupted())
+			throw new CancellationException();
+	}
+}
@@ -0,0 +1,109 @@
+package com.weg.android.editor.text.immutable;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A {@link Reader} streaming an {@link ImmutableText} chunk by chunk through a
+ * {@link TextCursor}, the text is never materialized as a {@code String}.
+ */
+public final class TextReader extends Reader {
+	private final int end;
+	private TextCursor cursor;
+	private int position;
+	private int mark;
+	
+	TextReader(ImmutableText text, int start, int end) {
+		this.cursor = text.cursor(start);
+		this.position = start;
+		this.mark = start;
+		this.end = end;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		ensureOpen();
+		if (position >= end) return -1;
+		char ch = charAt(position);
+		position++;
+		return ch;
+	}
+	
+	@Override
+	public int read(@NonNull char[] cbuf, int off, int len) throws IOException {
+		ensureOpen();
+		if (off < 0 || len < 0 || off + len > cbuf.length)
+			throw new IndexOutOfBoundsException();
+		if (len == 0) return 0;
+		if (position >= end) return -1;
+		
+		int read = 0;
+		while (read < len && position < end) {
+			while (position >= cursor.getEnd()) cursor.next();
+			int count = Math.min(Math.min(cursor.getEnd(), end) - position, len - read);
+			int arrayOffset = cursor.getArrayOffset() + position - cursor.getOffset();
+			if (cursor.isLatin1()) {
+				byte[] bytes = cursor.getBytes();
+				for (int i = 0; i < count; i++) {
+					cbuf[off + read + i] = (char) (bytes[arrayOffset + i] & 0xff);
+				}
+			} else {
+				System.arraycopy(cursor.getChars(), arrayOffset, cbuf, off + read, count);
+			}
+			read += count;
+			position += count;
+		}
+		return read;
+	}
+	
+	private char charAt(int index) {
+		if (index >= cursor.getEnd() || index < cursor.getOffset())
+			cursor.seek(index);
+		return cursor.charAt(index - cursor.getOffset());
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+		ensureOpen();
+		int skipped = (int) Math.max(0, Math.min(n, end - position));
+		position += skipped;
+		if (position < end) cursor.seek(position);
+		return skipped;
+	}
+	
+	@Override
+	public boolean ready() throws IOException {
+		ensureOpen();
+		return true;
+	}
+	
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+	
+	@Override
+	public void mark(int readAheadLimit) throws IOException {
+		ensureOpen();
+		mark = position;
+	}
+	
+	@Override
+	public void reset() throws IOException {
+		ensureOpen();
+		position = mark;
+		if (position < end) cursor.seek(position);
+	}
+	
+	@Override
+	public void close() {
+		cursor = null;
+	}
+	
+	private void ensureOpen() throws IOException {
+		if (cursor == null)
+			throw new IOException("Stream closed");
+	}
+}
@@ -1,54 +1,70 @@
 package com.weg.android.editor.text.immutable;
 
-import android.graphics.Canvas;
-import android.graphics.Paint;
-
 import androidx.annotation.NonNull;
 
 class WideLeafNode extends LeafNode {
 	
-	private static final long serialVersionUID = -2997940118120598777L;
+	private static final long serialVersionUID = -6309187414405285114L;
 	private final char[] data;
+	private final int offset;
+	private final int length;
+	private final int lineBreaks;
 	
 	WideLeafNode(char[] data) {
+		this(data, 0, data.length);
+	}
+	
+	/**
+	 * Creates a leaf of {@code data[offset, offset + length)}, the array is shared.
+	 */
+	WideLeafNode(char[] data, int offset, int length) {
 		this.data = data;
+		this.offset = offset;
+		this.length = length;
+		this.lineBreaks = lineBreaks(data, offset, offset + length);
 	}
 	
 	
 	public int length() {
-		return data.length;
+		return length;
 	}
 	
+	@Override
+	byte[] byteArray() {
+		return null;
+	}
 	
-	public void getChars(int start, int end, char[] dest, int destPos) {
-		if (start < 0 || end > length() || start > end) {
-			throw new IndexOutOfBoundsException();
-		}
-		System.arraycopy(data, start, dest, destPos, end - start);
+	@Override
+	char[] charArray() {
+		return data;
 	}
 	
 	@Override
-	public void drawText(@NonNull Canvas c, int start, int end, float x, float y, @NonNull Paint p) {
-		if (start < 0 || end > length() || start > end) {
-			throw new IndexOutOfBoundsException();
-		}
-		c.drawText(data, start, end - start, x, y, p);
+	int arrayOffset() {
+		return offset;
 	}
 	
 	@Override
-	public int measureText(int start, int end, @NonNull Paint p) {
-		if (start < 0 || end > length() || start > end) {
-			throw new IndexOutOfBoundsException();
-		}
-		return (int) p.measureText(data, start, end - start);
+	int lineBreaks() {
+		return lineBreaks;
+	}
+	
+	@Override
+	boolean startsWithLF() {
+		return length != 0 && data[offset] == LF;
 	}
 	
 	@Override
-	public int getTextWidths(int start, int end, float[] widths, @NonNull Paint p) {
+	boolean endsWithCR() {
+		return length != 0 && data[offset + length - 1] == CR;
+	}
+	
+	
+	public void getChars(int start, int end, char[] dest, int destPos) {
 		if (start < 0 || end > length() || start > end) {
 			throw new IndexOutOfBoundsException();
 		}
-		return p.getTextWidths(data, start, end - start, widths);
+		System.arraycopy(data, offset + start, dest, destPos, end - start);
 	}
 	
 	
@@ -56,17 +72,20 @@ class WideLeafNode extends LeafNode {
 		if (start == 0 && end == length()) {
 			return this;
 		}
-		return ImmutableText.createLeafNode(new CharArrayCharSequence(data, start, end));
+		if (!ImmutableText.sharesArray(end - start, data.length)) {
+			return ImmutableText.createLeafNode(new CharArrayCharSequence(data, offset + start, offset + end));
+		}
+		return new WideLeafNode(data, offset + start, end - start);
 	}
 	
 	
 	@NonNull
 	public String toString() {
-		return new String(data);
+		return new String(data, offset, length);
 	}
 	
 	
 	public char charAt(int index) {
-		return data[index];
+		return data[offset + index];
 	}
 }
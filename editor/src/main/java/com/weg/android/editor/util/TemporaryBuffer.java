@@ -0,0 +1,70 @@
+package com.weg.android.editor.util;
+
+/**
+ * Scratch {@code char[]} buffers kept per thread in power-of-two size classes, from 64 to
+ * 64K chars with two buffers of each class, so a nested obtain still hits. Buffers are taken
+ * and returned without locking, larger ones are never kept.
+ *
+ * <pre>{@code
+ * char[] temp = TemporaryBuffer.obtain(length);
+ * try {
+ *     // use temp[0, length)
+ * } finally {
+ *     TemporaryBuffer.recycle(temp);
+ * }
+ * }</pre>
+ */
+public final class TemporaryBuffer {
+	private static final int MIN_CLASS = 6;
+	private static final int MAX_CLASS = 16;
+	private static final int SLOTS = 2;
+	
+	private static final ThreadLocal<char[][]> sPool = new ThreadLocal<char[][]>() {
+		@Override
+		protected char[][] initialValue() {
+			return new char[(MAX_CLASS - MIN_CLASS + 1) * SLOTS][];
+		}
+	};
+	
+	private TemporaryBuffer() {}
+	
+	/**
+	 * Returns a {@code char[]} of at least {@code len} chars, to give back with
+	 * {@link #recycle(char[])}.
+	 */
+	public static char[] obtain(int len) {
+		int sizeClass = sizeClass(len);
+		if (sizeClass <= MAX_CLASS) {
+			char[][] buffers = sPool.get();
+			for (int i = slot(sizeClass), end = i + SLOTS; i < end; i++) {
+				char[] buf = buffers[i];
+				if (buf != null) {
+					buffers[i] = null;
+					return buf;
+				}
+			}
+		}
+		return new char[sizeClass <= MAX_CLASS ? 1 << sizeClass : len];
+	}
+	
+	public static void recycle(char[] temp) {
+		int sizeClass = sizeClass(temp.length);
+		if (sizeClass > MAX_CLASS || temp.length != 1 << sizeClass) return;
+		
+		char[][] buffers = sPool.get();
+		for (int i = slot(sizeClass), end = i + SLOTS; i < end; i++) {
+			if (buffers[i] == null) {
+				buffers[i] = temp;
+				return;
+			}
+		}
+	}
+	
+	private static int sizeClass(int len) {
+		return Math.max(MIN_CLASS, 32 - Integer.numberOfLeadingZeros(Math.max(len, 1) - 1));
+	}
+	
+	private static int slot(int sizeClass) {
+		return (sizeClass - MIN_CLASS) * SLOTS;
+	}
+}
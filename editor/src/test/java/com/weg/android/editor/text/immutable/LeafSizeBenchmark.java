@@ -0,0 +1,162 @@
+package com.weg.android.editor.text.immutable;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the tree built with different leaf sizes: its depth, leaf count and heap, the time
+ * of a random {@code charAt} and {@code lineStartOffset}, and the time and bytes allocated by
+ * one edit. It then applies a run of edits one after the other and counts the array chars the
+ * edited text holds per text char, which is what sharing the arrays of slices costs.
+ *
+ * <p>A plain JVM main, run from the editor module directory with the main and test classes and
+ * the Android stubs on the class path, optionally with the file and the leaf sizes:</p>
+ * <pre>java LeafSizeBenchmark [../app/src/main/assets/checker.ts] [64 512 1024 4096]</pre>
+ * <p>The tree is read reflectively, so the same file runs against earlier commits.</p>
+ */
+public class LeafSizeBenchmark {
+	private static final int LOOKUPS = 1 << 20;
+	private static final int EDITS = 200000;
+	private static final int EDIT_RUN = 20000;
+	
+	private static volatile Object sink;
+	
+	public static void main(String[] args) throws Exception {
+		String path = args.length > 0 ? args[0] : "../app/src/main/assets/checker.ts";
+		int[] leafSizes = {64, 512, 1024, 4096};
+		if (args.length > 1) {
+			leafSizes = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++) {
+				leafSizes[i - 1] = Integer.parseInt(args[i]);
+			}
+		}
+		String text = new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+		System.out.printf("%s, %d chars%n", path, text.length());
+		System.out.printf("%6s %6s %7s %8s %10s %13s %8s %7s %13s%n", "leaf", "depth", "leaves", "heap KB",
+				"charAt ns", "lineStart ns", "edit ns", "edit B", "chars/char");
+		// the first round warms up
+		for (int round = 0; round < 2; round++) {
+			for (int leafSize : leafSizes) {
+				run(text, leafSize, round == 1);
+			}
+		}
+	}
+	
+	private static void run(String string, int leafSize, boolean print) throws Exception {
+		long before = usedHeap();
+		ImmutableText text = new ImmutableText.Builder(leafSize).append(string).build();
+		long heap = usedHeap() - before;
+		Node root = root(text);
+		
+		Random random = new Random(7);
+		int length = text.length();
+		int lines = text.lineBreakCount() + 1;
+		int[] offsets = new int[LOOKUPS];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = random.nextInt(length);
+		}
+		long sum = 0;
+		long start = System.nanoTime();
+		for (int offset : offsets) {
+			// a new view has no cached leaf, each lookup descends from the root
+			sum += text.view().charAt(offset);
+		}
+		long charAt = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int offset : offsets) {
+			sum += text.lineStartOffset(offset % lines);
+		}
+		long lineStart = System.nanoTime() - start;
+		
+		long allocatedBefore = allocatedBytes();
+		start = System.nanoTime();
+		for (int i = 0; i < EDITS; i++) {
+			int offset = offsets[i] % (length - 1);
+			sink = (i & 1) == 0 ? text.insert(offset, "x") : text.delete(offset, offset + 1);
+		}
+		long edit = System.nanoTime() - start;
+		long allocated = allocatedBefore < 0 ? -1 : allocatedBytes() - allocatedBefore;
+		
+		ImmutableText edited = text;
+		for (int i = 0; i < EDIT_RUN; i++) {
+			int offset = offsets[i] % (edited.length() - 1);
+			edited = (i & 1) == 0 ? edited.insert(offset, "xy") : edited.delete(offset, offset + 2);
+		}
+		double arrayChars = (double) arrayChars(root(edited)) / edited.length();
+		sink = sum;
+		
+		if (print)
+			System.out.printf("%6d %6d %7d %8d %10.0f %13.0f %8.0f %7s %13.2f%n", leafSize, depth(root), leaves(root),
+					heap / 1024, (double) charAt / LOOKUPS, (double) lineStart / LOOKUPS, (double) edit / EDITS,
+					allocated < 0 ? "?" : Long.toString(allocated / EDITS), arrayChars);
+	}
+	
+	private static Node root(ImmutableText text) throws ReflectiveOperationException {
+		Field field = ImmutableText.class.getDeclaredField("myNode");
+		field.setAccessible(true);
+		return (Node) field.get(text);
+	}
+	
+	private static int depth(Node node) {
+		if (!(node instanceof CompositeNode)) return 0;
+		CompositeNode composite = (CompositeNode) node;
+		return 1 + Math.max(depth(composite.head), depth(composite.tail));
+	}
+	
+	private static int leaves(Node node) {
+		if (!(node instanceof CompositeNode)) return 1;
+		CompositeNode composite = (CompositeNode) node;
+		return leaves(composite.head) + leaves(composite.tail);
+	}
+	
+	/**
+	 * Returns the length of the distinct arrays the leaves hold.
+	 */
+	private static long arrayChars(Node root) {
+		Map<Object, Integer> arrays = new IdentityHashMap<>();
+		collectArrays(root, arrays);
+		long chars = 0;
+		for (int arrayLength : arrays.values()) {
+			chars += arrayLength;
+		}
+		return chars;
+	}
+	
+	private static void collectArrays(Node node, Map<Object, Integer> arrays) {
+		if (node instanceof CompositeNode) {
+			collectArrays(((CompositeNode) node).head, arrays);
+			collectArrays(((CompositeNode) node).tail, arrays);
+		} else if (node instanceof LeafNode) {
+			LeafNode leaf = (LeafNode) node;
+			if (leaf.byteArray() != null)
+				arrays.put(leaf.byteArray(), leaf.byteArray().length);
+			else if (leaf.charArray() != null)
+				arrays.put(leaf.charArray(), leaf.charArray().length);
+		}
+	}
+	
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+	/**
+	 * Returns the bytes allocated by the current thread, or -1 if the JVM does not count them.
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+		return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
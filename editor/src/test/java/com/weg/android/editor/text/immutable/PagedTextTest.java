@@ -0,0 +1,147 @@
+package com.weg.android.editor.text.immutable;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Opens files with {@link TextLoader#loadPaged}, checks the text equals the one loaded whole,
+ * then edits both alike and checks them again.
+ */
+public class PagedTextTest {
+	/**
+	 * Includes a surrogate pair and all the line breaks, a CR and an LF may end up on either
+	 * side of a page end.
+	 */
+	private static final String[] PIECES = {"a", "b", " ", "\t", "é", "€", "😀", "\n", "\r\n", "\r"};
+	private static final int LINES_CHECKED = 200;
+	
+	private final Random random = new Random(20230115);
+	
+	@Test
+	public void utf8EvictingPages() throws IOException {
+		// more pages than stay decoded
+		check(randomText(40 * PagedFile.PAGE_CHARS), new byte[0], StandardCharsets.UTF_8, 60);
+	}
+	
+	@Test
+	public void utf16WithLittleEndianMark() throws IOException {
+		check(randomText(4 * PagedFile.PAGE_CHARS), new byte[]{(byte) 0xFF, (byte) 0xFE}, StandardCharsets.UTF_16LE,
+				StandardCharsets.UTF_16, 20);
+	}
+	
+	@Test
+	public void utf16WithBigEndianMark() throws IOException {
+		check(randomText(4 * PagedFile.PAGE_CHARS), new byte[]{(byte) 0xFE, (byte) 0xFF}, StandardCharsets.UTF_16BE,
+				StandardCharsets.UTF_16, 20);
+	}
+	
+	@Test
+	public void utf16WithoutMark() throws IOException {
+		check(randomText(4 * PagedFile.PAGE_CHARS), new byte[0], StandardCharsets.UTF_16BE, StandardCharsets.UTF_16,
+				20);
+	}
+	
+	@Test
+	public void utf32WithLittleEndianMark() throws IOException {
+		check(randomText(4 * PagedFile.PAGE_CHARS), new byte[]{(byte) 0xFF, (byte) 0xFE, 0, 0},
+				Charset.forName("UTF-32LE"), Charset.forName("UTF-32"), 20);
+	}
+	
+	@Test(expected = UnsupportedCharsetException.class)
+	public void charsetShiftingStateAcrossPages() throws IOException {
+		StringBuilder builder = new StringBuilder();
+		while (builder.length() < 4 * PagedFile.PAGE_CHARS) {
+			// hiragana, each line shifted in and out of JIS X 0208 once
+			for (int i = 0; i < 4000; i++) {
+				builder.append((char) (0x3042 + random.nextInt(80)));
+			}
+			builder.append('\n');
+		}
+		Charset charset = Charset.forName("ISO-2022-JP");
+		Path path = write(new byte[0], builder.toString().getBytes(charset));
+		try (FileChannel channel = FileChannel.open(path)) {
+			TextLoader.loadPaged(channel, 0, channel.size(), charset, null);
+		} finally {
+			Files.delete(path);
+		}
+	}
+	
+	private void check(String content, byte[] mark, Charset charset, int edits) throws IOException {
+		check(content, mark, charset, charset, edits);
+	}
+	
+	/**
+	 * @param encoding the charset writing the content after the mark.
+	 * @param charset  the charset the file is read with.
+	 */
+	private void check(String content, byte[] mark, Charset encoding, Charset charset, int edits) throws IOException {
+		Path path = write(mark, content.getBytes(encoding));
+		try (FileChannel channel = FileChannel.open(path)) {
+			ImmutableText whole = TextLoader.load(channel, 0, channel.size(), charset, null);
+			ImmutableText paged = TextLoader.loadPaged(channel, 0, channel.size(), charset, null);
+			assertEquals("content", content.length(), whole.length());
+			assertSameText("loaded", whole, paged);
+			for (int i = 0; i < edits; i++) {
+				int start = random.nextInt(whole.length() + 1);
+				if (random.nextBoolean()) {
+					String inserted = randomText(1 + random.nextInt(100));
+					whole = whole.insert(start, inserted);
+					paged = paged.insert(start, inserted);
+				} else {
+					// now and then across several pages
+					int length = random.nextInt(8) == 0 ? random.nextInt(3 * PagedFile.PAGE_CHARS) : random.nextInt(100);
+					int end = Math.min(whole.length(), start + length);
+					whole = whole.delete(start, end);
+					paged = paged.delete(start, end);
+				}
+				assertSameText("edit " + i, whole, paged);
+			}
+		} finally {
+			Files.delete(path);
+		}
+	}
+	
+	private String randomText(int length) {
+		StringBuilder builder = new StringBuilder(length + 2);
+		while (builder.length() < length) {
+			builder.append(PIECES[random.nextInt(PIECES.length)]);
+		}
+		return builder.toString();
+	}
+	
+	private static Path write(byte[] mark, byte[] bytes) throws IOException {
+		Path path = Files.createTempFile("paged", ".txt");
+		Files.write(path, mark);
+		Files.write(path, bytes, StandardOpenOption.APPEND);
+		return path;
+	}
+	
+	private void assertSameText(String message, ImmutableText expected, ImmutableText actual) {
+		assertEquals(message + ", length", expected.length(), actual.length());
+		char[] expectedChars = new char[expected.length()];
+		char[] actualChars = new char[actual.length()];
+		expected.getChars(0, expected.length(), expectedChars, 0);
+		actual.getChars(0, actual.length(), actualChars, 0);
+		for (int i = 0; i < expectedChars.length; i++) {
+			if (expectedChars[i] != actualChars[i])
+				assertEquals(message + ", char " + i, expectedChars[i], actualChars[i]);
+		}
+		assertEquals(message + ", line breaks", expected.lineBreakCount(), actual.lineBreakCount());
+		// a line is looked up by scanning its leaf, pages are long ones
+		for (int i = 0; i < LINES_CHECKED; i++) {
+			int line = random.nextInt(expected.lineBreakCount() + 1);
+			assertEquals(message + ", start of line " + line, expected.lineStartOffset(line), actual.lineStartOffset(line));
+		}
+	}
+}